@@ -3,4 +3,7 @@
 CXX="g++ -shared -fPIC -O3 -Wall -Werror -I$JAVA_HOME/include/ -I$JAVA_HOME/include/linux/"
 
 $CXX src/main/c/NativeCipherImpl.cpp -o src/main/resources/native-cipher.so -lcrypto
+$CXX src/main/c/OpenSslCipherImpl.cpp -o src/main/resources/native-cipher-openssl.so -lcrypto
 $CXX src/main/c/NativeCompressImpl.cpp -o src/main/resources/native-compress.so -lz
+# Statically linked, as libdeflate is rarely installed
+$CXX src/main/c/NativeLibdeflateImpl.cpp -o src/main/resources/native-libdeflate.so -Wl,-Bstatic -ldeflate -Wl,-Bdynamic
@@ -0,0 +1,60 @@
+#include <libdeflate.h>
+#include "net_md_5_bungee_jni_zlib_NativeLibdeflateImpl.h"
+
+jint throwException(JNIEnv *env, const char* message, int err) {
+    // These can't be static for some unknown reason
+    jclass exceptionClass = env->FindClass("net/md_5/bungee/jni/NativeCodeException");
+    jmethodID exceptionInitID = env->GetMethodID(exceptionClass, "<init>", "(Ljava/lang/String;I)V");
+
+    jstring jMessage = env->NewStringUTF(message);
+
+    jthrowable throwable = (jthrowable) env->NewObject(exceptionClass, exceptionInitID, jMessage, err);
+    return env->Throw(throwable);
+}
+
+jlong JNICALL Java_net_md_15_bungee_jni_zlib_NativeLibdeflateImpl_init(JNIEnv* env, jobject obj, jboolean compress, jint level) {
+    void* ctx = (compress) ? (void*) libdeflate_alloc_compressor(level) : (void*) libdeflate_alloc_decompressor();
+
+    if (!ctx) {
+        throwException(env, "Could not allocate libdeflate context", level);
+    }
+
+    return (jlong) ctx;
+}
+
+void JNICALL Java_net_md_15_bungee_jni_zlib_NativeLibdeflateImpl_end(JNIEnv* env, jobject obj, jlong ctx, jboolean compress) {
+    if (compress) {
+        libdeflate_free_compressor((libdeflate_compressor*) ctx);
+    } else {
+        libdeflate_free_decompressor((libdeflate_decompressor*) ctx);
+    }
+}
+
+jint JNICALL Java_net_md_15_bungee_jni_zlib_NativeLibdeflateImpl_compressBound(JNIEnv* env, jobject obj, jlong ctx, jint inLength) {
+    return (jint) libdeflate_zlib_compress_bound((libdeflate_compressor*) ctx, inLength);
+}
+
+jint JNICALL Java_net_md_15_bungee_jni_zlib_NativeLibdeflateImpl_process(JNIEnv* env, jobject obj, jlong ctx, jlong in, jint inLength, jlong out, jint outLength, jboolean compress) {
+    if (compress) {
+        size_t written = libdeflate_zlib_compress((libdeflate_compressor*) ctx, (void*) in, inLength, (void*) out, outLength);
+
+        if (written == 0) {
+            throwException(env, "Compressed data exceeds bound", outLength);
+        }
+
+        return (jint) written;
+    }
+
+    size_t written;
+    libdeflate_result ret = libdeflate_zlib_decompress((libdeflate_decompressor*) ctx, (void*) in, inLength, (void*) out, outLength, &written);
+
+    switch (ret) {
+        case LIBDEFLATE_SUCCESS:
+            return (jint) written;
+        case LIBDEFLATE_INSUFFICIENT_SPACE:
+            return -1;
+        default:
+            throwException(env, "Could not decompress data", ret);
+            return 0;
+    }
+}
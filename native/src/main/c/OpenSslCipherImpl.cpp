@@ -0,0 +1,51 @@
+#include <openssl/err.h>
+#include <openssl/evp.h>
+#include "net_md_5_bungee_jni_cipher_OpenSslCipherImpl.h"
+
+typedef unsigned char byte;
+
+jint throwException(JNIEnv *env, const char* message, int err) {
+    // These can't be static for some unknown reason
+    jclass exceptionClass = env->FindClass("net/md_5/bungee/jni/NativeCodeException");
+    jmethodID exceptionInitID = env->GetMethodID(exceptionClass, "<init>", "(Ljava/lang/String;I)V");
+
+    jstring jMessage = env->NewStringUTF(message);
+
+    jthrowable throwable = (jthrowable) env->NewObject(exceptionClass, exceptionInitID, jMessage, err);
+    return env->Throw(throwable);
+}
+
+jlong JNICALL Java_net_md_15_bungee_jni_cipher_OpenSslCipherImpl_init(JNIEnv* env, jobject obj, jboolean forEncryption, jbyteArray key) {
+    jbyte *keyBytes = env->GetByteArrayElements(key, NULL);
+    if (!keyBytes) {
+        // Replace the pending OutOfMemoryError, so callers see the same exception as for any other failure
+        env->ExceptionClear();
+        throwException(env, "Could not get key bytes", 0);
+        return 0;
+    }
+
+    EVP_CIPHER_CTX *cipher = EVP_CIPHER_CTX_new();
+    // Minecraft uses the key as the IV too
+    if (cipher && !EVP_CipherInit_ex(cipher, EVP_aes_128_cfb8(), NULL, (byte*) keyBytes, (byte*) keyBytes, forEncryption)) {
+        EVP_CIPHER_CTX_free(cipher);
+        cipher = NULL;
+    }
+
+    env->ReleaseByteArrayElements(key, keyBytes, JNI_ABORT);
+    return (jlong) cipher;
+}
+
+void JNICALL Java_net_md_15_bungee_jni_cipher_OpenSslCipherImpl_free(JNIEnv* env, jobject obj, jlong ctx) {
+    EVP_CIPHER_CTX_free((EVP_CIPHER_CTX*) ctx);
+}
+
+void JNICALL Java_net_md_15_bungee_jni_cipher_OpenSslCipherImpl_cipher(JNIEnv* env, jobject obj, jlong ctx, jlong in, jlong out, jint length) {
+    int outLength;
+
+    if (!EVP_CipherUpdate((EVP_CIPHER_CTX*) ctx, (byte*) out, &outLength, (byte*) in, length)) {
+        throwException(env, "Could not cipher data", (int) ERR_get_error());
+    } else if (outLength != length) {
+        // CFB8 never holds back bytes, so anything else would leave part of the output unciphered
+        throwException(env, "Ciphered length does not match input", outLength);
+    }
+}
@@ -0,0 +1,37 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class net_md_5_bungee_jni_cipher_OpenSslCipherImpl */
+
+#ifndef _Included_net_md_5_bungee_jni_cipher_OpenSslCipherImpl
+#define _Included_net_md_5_bungee_jni_cipher_OpenSslCipherImpl
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     net_md_5_bungee_jni_cipher_OpenSslCipherImpl
+ * Method:    init
+ * Signature: (Z[B)J
+ */
+JNIEXPORT jlong JNICALL Java_net_md_15_bungee_jni_cipher_OpenSslCipherImpl_init
+  (JNIEnv *, jobject, jboolean, jbyteArray);
+
+/*
+ * Class:     net_md_5_bungee_jni_cipher_OpenSslCipherImpl
+ * Method:    free
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_net_md_15_bungee_jni_cipher_OpenSslCipherImpl_free
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     net_md_5_bungee_jni_cipher_OpenSslCipherImpl
+ * Method:    cipher
+ * Signature: (JJJI)V
+ */
+JNIEXPORT void JNICALL Java_net_md_15_bungee_jni_cipher_OpenSslCipherImpl_cipher
+  (JNIEnv *, jobject, jlong, jlong, jlong, jint);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -0,0 +1,45 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class net_md_5_bungee_jni_zlib_NativeLibdeflateImpl */
+
+#ifndef _Included_net_md_5_bungee_jni_zlib_NativeLibdeflateImpl
+#define _Included_net_md_5_bungee_jni_zlib_NativeLibdeflateImpl
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     net_md_5_bungee_jni_zlib_NativeLibdeflateImpl
+ * Method:    init
+ * Signature: (ZI)J
+ */
+JNIEXPORT jlong JNICALL Java_net_md_15_bungee_jni_zlib_NativeLibdeflateImpl_init
+  (JNIEnv *, jobject, jboolean, jint);
+
+/*
+ * Class:     net_md_5_bungee_jni_zlib_NativeLibdeflateImpl
+ * Method:    end
+ * Signature: (JZ)V
+ */
+JNIEXPORT void JNICALL Java_net_md_15_bungee_jni_zlib_NativeLibdeflateImpl_end
+  (JNIEnv *, jobject, jlong, jboolean);
+
+/*
+ * Class:     net_md_5_bungee_jni_zlib_NativeLibdeflateImpl
+ * Method:    compressBound
+ * Signature: (JI)I
+ */
+JNIEXPORT jint JNICALL Java_net_md_15_bungee_jni_zlib_NativeLibdeflateImpl_compressBound
+  (JNIEnv *, jobject, jlong, jint);
+
+/*
+ * Class:     net_md_5_bungee_jni_zlib_NativeLibdeflateImpl
+ * Method:    process
+ * Signature: (JJIJIZ)I
+ */
+JNIEXPORT jint JNICALL Java_net_md_15_bungee_jni_zlib_NativeLibdeflateImpl_process
+  (JNIEnv *, jobject, jlong, jlong, jint, jlong, jint, jboolean);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
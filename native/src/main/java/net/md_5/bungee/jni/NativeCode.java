@@ -6,6 +6,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import lombok.Getter;
 import net.md_5.bungee.jni.cipher.BungeeCipher;
 
 public final class NativeCode<T>
@@ -13,19 +14,43 @@ public final class NativeCode<T>
 
     private final String name;
     private final Class<? extends T> javaImpl;
+    private final NativeCode<T> fallback;
     private final Class<? extends T> nativeImpl;
     //
+    @Getter
     private boolean loaded;
 
     public NativeCode(String name, Class<? extends T> javaImpl, Class<? extends T> nativeImpl)
     {
         this.name = name;
         this.javaImpl = javaImpl;
+        this.fallback = null;
+        this.nativeImpl = nativeImpl;
+    }
+
+    /**
+     * Creates native code which falls back to other native code, and in turn
+     * its Java implementation, when it cannot be loaded.
+     *
+     * @param name the name of the native library
+     * @param fallback the code to use if this library cannot be loaded
+     * @param nativeImpl the implementation using the native library
+     */
+    public NativeCode(String name, NativeCode<T> fallback, Class<? extends T> nativeImpl)
+    {
+        this.name = name;
+        this.javaImpl = null;
+        this.fallback = fallback;
         this.nativeImpl = nativeImpl;
     }
 
     public T newInstance()
     {
+        if ( !loaded && fallback != null )
+        {
+            return fallback.newInstance();
+        }
+
         try
         {
             return ( loaded ) ? nativeImpl.getDeclaredConstructor().newInstance() : javaImpl.getDeclaredConstructor().newInstance();
@@ -53,6 +78,12 @@ public final class NativeCode<T>
             {
                 try ( InputStream soFile = BungeeCipher.class.getClassLoader().getResourceAsStream( name + ".so" ) )
                 {
+                    if ( soFile == null )
+                    {
+                        // Not built for this jar
+                        return fallback != null && fallback.load();
+                    }
+
                     // Else we will create and copy it to a temp file
                     File temp = File.createTempFile( fullName, ".so" );
                     // Don't leave cruft on filesystem
@@ -75,7 +106,7 @@ public final class NativeCode<T>
             }
         }
 
-        return loaded;
+        return loaded || ( fallback != null && fallback.load() );
     }
 
     public static boolean isSupported()
@@ -18,4 +18,15 @@ public interface BungeeCipher
     void cipher(ByteBuf in, ByteBuf out) throws GeneralSecurityException;
 
     ByteBuf cipher(ChannelHandlerContext ctx, ByteBuf in) throws GeneralSecurityException;
+
+    /**
+     * Ciphers the readable bytes of a buffer in place, leaving its indices as
+     * they were.
+     *
+     * @param buf the buffer to cipher
+     * @return false, without touching the buffer, if this cipher cannot
+     * access its memory directly
+     * @throws GeneralSecurityException if ciphering fails
+     */
+    boolean cipherInPlace(ByteBuf buf) throws GeneralSecurityException;
 }
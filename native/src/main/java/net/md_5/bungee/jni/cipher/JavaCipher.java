@@ -2,6 +2,7 @@ package net.md_5.bungee.jni.cipher;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
@@ -41,10 +42,24 @@ public class JavaCipher implements BungeeCipher
     public void cipher(ByteBuf in, ByteBuf out) throws ShortBufferException
     {
         int readableBytes = in.readableBytes();
+        int outputSize = cipher.getOutputSize( readableBytes );
+        out.ensureWritable( outputSize );
+
+        if ( in.nioBufferCount() == 1 && out.nioBufferCount() == 1 )
+        {
+            // Straight between the buffers' own memory, whether heap or direct
+            ByteBuffer inNio = in.internalNioBuffer( in.readerIndex(), readableBytes );
+            ByteBuffer outNio = out.internalNioBuffer( out.writerIndex(), outputSize );
+            int written = cipher.update( inNio, outNio );
+
+            in.skipBytes( readableBytes );
+            out.writerIndex( out.writerIndex() + written );
+            return;
+        }
+
         byte[] heapIn = bufToByte( in );
 
         byte[] heapOut = heapOutLocal.get();
-        int outputSize = cipher.getOutputSize( readableBytes );
         if ( heapOut.length < outputSize )
         {
             heapOut = new byte[ outputSize ];
@@ -56,13 +71,37 @@ public class JavaCipher implements BungeeCipher
     @Override
     public ByteBuf cipher(ChannelHandlerContext ctx, ByteBuf in) throws ShortBufferException
     {
-        int readableBytes = in.readableBytes();
-        byte[] heapIn = bufToByte( in );
+        ByteBuf out = ctx.alloc().buffer( cipher.getOutputSize( in.readableBytes() ) );
+        try
+        {
+            cipher( in, out );
+        } catch ( ShortBufferException ex )
+        {
+            out.release();
+            throw ex;
+        }
 
-        ByteBuf heapOut = ctx.alloc().heapBuffer( cipher.getOutputSize( readableBytes ) );
-        heapOut.writerIndex( cipher.update( heapIn, 0, readableBytes, heapOut.array(), heapOut.arrayOffset() ) );
+        return out;
+    }
 
-        return heapOut;
+    @Override
+    public boolean cipherInPlace(ByteBuf buf) throws ShortBufferException
+    {
+        int readableBytes = buf.readableBytes();
+        if ( buf.hasArray() )
+        {
+            int offset = buf.arrayOffset() + buf.readerIndex();
+            cipher.update( buf.array(), offset, readableBytes, buf.array(), offset );
+        } else if ( buf.nioBufferCount() == 1 )
+        {
+            // Views of the same memory, which CFB8 may read and write in step
+            ByteBuffer nio = buf.internalNioBuffer( buf.readerIndex(), readableBytes );
+            cipher.update( nio, nio.duplicate() );
+        } else
+        {
+            return false;
+        }
+        return true;
     }
 
     @Override
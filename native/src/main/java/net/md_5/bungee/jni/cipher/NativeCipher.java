@@ -71,4 +71,23 @@ public class NativeCipher implements BungeeCipher
 
         return heapOut;
     }
+
+    @Override
+    public boolean cipherInPlace(ByteBuf buf) throws GeneralSecurityException
+    {
+        if ( !buf.hasMemoryAddress() )
+        {
+            return false;
+        }
+        Preconditions.checkState( ctx != 0, "Invalid pointer to AES key!" );
+
+        // CFB8 reads each byte before writing it, so the input may be the output
+        int length = buf.readableBytes();
+        if ( length > 0 )
+        {
+            long address = buf.memoryAddress() + buf.readerIndex();
+            nativeCipher.cipher( ctx, address, address, length );
+        }
+        return true;
+    }
 }
@@ -0,0 +1,96 @@
+package net.md_5.bungee.jni.cipher;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import java.security.GeneralSecurityException;
+import javax.crypto.SecretKey;
+import lombok.Getter;
+
+/**
+ * AES-CFB8 through OpenSSL's EVP interface, which uses AES-NI where the
+ * processor supports it.
+ */
+public class OpenSslCipher implements BungeeCipher
+{
+
+    @Getter
+    private final OpenSslCipherImpl nativeCipher = new OpenSslCipherImpl();
+    /*============================================================================*/
+    private long ctx;
+
+    @Override
+    public void init(boolean forEncryption, SecretKey key) throws GeneralSecurityException
+    {
+        Preconditions.checkArgument( key.getEncoded().length == 16, "Invalid key size" );
+        free();
+
+        this.ctx = nativeCipher.init( forEncryption, key.getEncoded() );
+        if ( ctx == 0 )
+        {
+            throw new GeneralSecurityException( "Could not initialise OpenSSL cipher" );
+        }
+    }
+
+    @Override
+    public void free()
+    {
+        if ( ctx != 0 )
+        {
+            nativeCipher.free( ctx );
+            ctx = 0;
+        }
+    }
+
+    @Override
+    public void cipher(ByteBuf in, ByteBuf out) throws GeneralSecurityException
+    {
+        // Smoke tests
+        in.memoryAddress();
+        out.memoryAddress();
+        Preconditions.checkState( ctx != 0, "Invalid pointer to AES key!" );
+
+        int length = in.readableBytes();
+        if ( length <= 0 )
+        {
+            return;
+        }
+
+        // CFB8 outputs exactly as many bytes as it reads
+        out.ensureWritable( length );
+
+        nativeCipher.cipher( ctx, in.memoryAddress() + in.readerIndex(), out.memoryAddress() + out.writerIndex(), length );
+
+        in.readerIndex( in.writerIndex() );
+        out.writerIndex( out.writerIndex() + length );
+    }
+
+    @Override
+    public ByteBuf cipher(ChannelHandlerContext ctx, ByteBuf in) throws GeneralSecurityException
+    {
+        int readableBytes = in.readableBytes();
+        ByteBuf heapOut = ctx.alloc().directBuffer( readableBytes ); // CFB8
+        cipher( in, heapOut );
+
+        return heapOut;
+    }
+
+    @Override
+    public boolean cipherInPlace(ByteBuf buf) throws GeneralSecurityException
+    {
+        if ( !buf.hasMemoryAddress() )
+        {
+            return false;
+        }
+        Preconditions.checkState( ctx != 0, "Invalid pointer to AES key!" );
+
+        // CFB8 reads each byte before writing it, so the input may be the output
+        int length = buf.readableBytes();
+        if ( length > 0 )
+        {
+            long address = buf.memoryAddress() + buf.readerIndex();
+            nativeCipher.cipher( ctx, address, address, length );
+        }
+        return true;
+    }
+}
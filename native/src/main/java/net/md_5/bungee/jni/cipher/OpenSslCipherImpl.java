@@ -0,0 +1,11 @@
+package net.md_5.bungee.jni.cipher;
+
+class OpenSslCipherImpl
+{
+
+    native long init(boolean forEncryption, byte[] key);
+
+    native void free(long ctx);
+
+    native void cipher(long ctx, long in, long out, int length);
+}
@@ -67,6 +67,10 @@ public class JavaZlib implements BungeeZlib
             while ( !inflater.finished() && inflater.getTotalIn() < inData.length )
             {
                 int count = inflater.inflate( buffer );
+                if ( count > out.maxWritableBytes() )
+                {
+                    throw new DataFormatException( "Output exceeds " + out.maxCapacity() + " bytes" );
+                }
                 out.writeBytes( buffer, 0, count );
             }
 
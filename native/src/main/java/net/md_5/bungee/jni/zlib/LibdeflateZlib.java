@@ -0,0 +1,79 @@
+package net.md_5.bungee.jni.zlib;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import lombok.Getter;
+
+/**
+ * Compresses each packet as a single buffer using libdeflate, rather than
+ * streaming it through zlib.
+ */
+public class LibdeflateZlib implements BungeeZlib
+{
+
+    // libdeflate has no default of its own, this matches zlib's
+    private static final int DEFAULT_LEVEL = 6;
+    //
+    @Getter
+    private final NativeLibdeflateImpl nativeCompress = new NativeLibdeflateImpl();
+    /*============================================================================*/
+    private boolean compress;
+    private long ctx;
+
+    @Override
+    public void init(boolean compress, int level)
+    {
+        free();
+
+        this.compress = compress;
+        this.ctx = nativeCompress.init( compress, ( level == Deflater.DEFAULT_COMPRESSION ) ? DEFAULT_LEVEL : level );
+    }
+
+    @Override
+    public void free()
+    {
+        if ( ctx != 0 )
+        {
+            nativeCompress.end( ctx, compress );
+            ctx = 0;
+        }
+    }
+
+    @Override
+    public void process(ByteBuf in, ByteBuf out) throws DataFormatException
+    {
+        // Smoke tests
+        in.memoryAddress();
+        out.memoryAddress();
+        Preconditions.checkState( ctx != 0, "Invalid pointer to compress!" );
+
+        int written;
+        if ( compress )
+        {
+            out.ensureWritable( nativeCompress.compressBound( ctx, in.readableBytes() ) );
+            written = processWhole( in, out );
+        } else
+        {
+            // Output must fit in one go, so keep growing it until it does
+            out.ensureWritable( Math.min( Math.max( 8192, in.readableBytes() * 4 ), out.maxWritableBytes() ) );
+            while ( ( written = processWhole( in, out ) ) == -1 )
+            {
+                if ( out.writableBytes() >= out.maxWritableBytes() )
+                {
+                    throw new DataFormatException( "Decompressed data exceeds " + out.maxCapacity() + " bytes" );
+                }
+                out.ensureWritable( Math.min( out.writableBytes() * 2, out.maxWritableBytes() ) );
+            }
+        }
+
+        in.skipBytes( in.readableBytes() );
+        out.writerIndex( out.writerIndex() + written );
+    }
+
+    private int processWhole(ByteBuf in, ByteBuf out)
+    {
+        return nativeCompress.process( ctx, in.memoryAddress() + in.readerIndex(), in.readableBytes(), out.memoryAddress() + out.writerIndex(), out.writableBytes(), compress );
+    }
+}
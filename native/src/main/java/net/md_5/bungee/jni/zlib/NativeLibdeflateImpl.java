@@ -0,0 +1,15 @@
+package net.md_5.bungee.jni.zlib;
+
+public class NativeLibdeflateImpl
+{
+
+    native long init(boolean compress, int compressionLevel);
+
+    native void end(long ctx, boolean compress);
+
+    native int compressBound(long ctx, int inLength);
+
+    // Processes the whole input in one go, returning the number of bytes
+    // written or -1 if decompressing needs more space than given
+    native int process(long ctx, long in, int inLength, long out, int outLength, boolean compress);
+}
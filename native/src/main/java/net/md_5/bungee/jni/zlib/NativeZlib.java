@@ -46,12 +46,18 @@ public class NativeZlib implements BungeeZlib
 
         while ( !nativeCompress.finished && ( compress || in.isReadable() ) )
         {
-            out.ensureWritable( 8192 );
+            // Never beyond the maximum capacity, which bounds how much may be inflated
+            out.ensureWritable( Math.min( 8192, out.maxWritableBytes() ) );
 
             int processed = nativeCompress.process( ctx, in.memoryAddress() + in.readerIndex(), in.readableBytes(), out.memoryAddress() + out.writerIndex(), out.writableBytes(), compress );
 
             in.readerIndex( in.readerIndex() + nativeCompress.consumed );
             out.writerIndex( out.writerIndex() + processed );
+
+            if ( processed == 0 && nativeCompress.consumed == 0 && !nativeCompress.finished )
+            {
+                throw new DataFormatException( "Output exceeds " + out.maxCapacity() + " bytes" );
+            }
         }
 
         nativeCompress.reset( ctx, compress );
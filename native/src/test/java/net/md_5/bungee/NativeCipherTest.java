@@ -9,6 +9,7 @@ import net.md_5.bungee.jni.NativeCode;
 import net.md_5.bungee.jni.cipher.BungeeCipher;
 import net.md_5.bungee.jni.cipher.JavaCipher;
 import net.md_5.bungee.jni.cipher.NativeCipher;
+import net.md_5.bungee.jni.cipher.OpenSslCipher;
 import org.junit.Assert;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
@@ -27,6 +28,7 @@ public class NativeCipherTest
     private static final int BENCHMARK_COUNT = 4096;
     //
     private static final NativeCode<BungeeCipher> factory = new NativeCode<>( "native-cipher", JavaCipher.class, NativeCipher.class );
+    private static final NativeCode<BungeeCipher> openSslFactory = new NativeCode<>( "native-cipher-openssl", JavaCipher.class, OpenSslCipher.class );
 
     @Test
     public void testNative() throws Exception
@@ -57,6 +59,27 @@ public class NativeCipherTest
         }
     }
 
+    @Test
+    public void testOpenSsl() throws Exception
+    {
+        // Only built where OpenSSL is available
+        if ( NativeCode.isSupported() && openSslFactory.load() )
+        {
+            System.out.println( "Testing OpenSSL cipher..." );
+            testACipher( new OpenSslCipher() );
+        }
+    }
+
+    @Test
+    public void testOpenSslBenchmark() throws Exception
+    {
+        if ( NativeCode.isSupported() && openSslFactory.load() )
+        {
+            System.out.println( "Benchmarking OpenSSL cipher..." );
+            testBenchmark( new OpenSslCipher() );
+        }
+    }
+
     @Test
     public void testJDK() throws Exception
     {
@@ -108,6 +131,21 @@ public class NativeCipherTest
         nativePlain.resetReaderIndex();
         Assert.assertEquals( nativePlain, out );
 
+        // In place, in whichever kind of buffer the cipher supports
+        ByteBuf inPlace = Unpooled.directBuffer().writeBytes( plainBytes );
+        cipher.init( true, secret );
+        if ( !cipher.cipherInPlace( inPlace ) )
+        {
+            inPlace = Unpooled.buffer().writeBytes( plainBytes );
+            Assert.assertTrue( cipher.cipherInPlace( inPlace ) );
+        }
+        nativeCiphered.resetReaderIndex();
+        Assert.assertEquals( nativeCiphered, inPlace );
+
+        cipher.init( false, secret );
+        Assert.assertTrue( cipher.cipherInPlace( inPlace ) );
+        Assert.assertEquals( nativePlain, inPlace );
+
         System.out.println( "This cipher works correctly!" );
     }
 
@@ -8,6 +8,7 @@ import java.util.zip.DataFormatException;
 import net.md_5.bungee.jni.NativeCode;
 import net.md_5.bungee.jni.zlib.BungeeZlib;
 import net.md_5.bungee.jni.zlib.JavaZlib;
+import net.md_5.bungee.jni.zlib.LibdeflateZlib;
 import net.md_5.bungee.jni.zlib.NativeZlib;
 import org.junit.Assert;
 import org.junit.Test;
@@ -16,6 +17,7 @@ public class NativeZlibTest
 {
 
     private final NativeCode<BungeeZlib> factory = new NativeCode<>( "native-compress", JavaZlib.class, NativeZlib.class );
+    private final NativeCode<BungeeZlib> libdeflateFactory = new NativeCode<>( "native-libdeflate", factory, LibdeflateZlib.class );
 
     @Test
     public void doTest() throws DataFormatException
@@ -24,10 +26,102 @@ public class NativeZlibTest
         {
             Assert.assertTrue( "Native code failed to load!", factory.load() );
             test( factory.newInstance() );
+
+            // Only built where libdeflate is available
+            if ( libdeflateFactory.load() && libdeflateFactory.isLoaded() )
+            {
+                test( libdeflateFactory.newInstance() );
+            } else
+            {
+                System.out.println( "Skipping libdeflate, not built" );
+            }
         }
         test( new JavaZlib() );
     }
 
+    @Test
+    public void testExceedsCapacity() throws DataFormatException
+    {
+        if ( NativeCode.isSupported() )
+        {
+            Assert.assertTrue( "Native code failed to load!", factory.load() );
+            testExceedsCapacity( factory.newInstance() );
+
+            if ( libdeflateFactory.load() && libdeflateFactory.isLoaded() )
+            {
+                testExceedsCapacity( libdeflateFactory.newInstance() );
+            }
+        }
+        testExceedsCapacity( new JavaZlib() );
+    }
+
+    @Test
+    public void testExactCapacity() throws DataFormatException
+    {
+        if ( NativeCode.isSupported() )
+        {
+            Assert.assertTrue( "Native code failed to load!", factory.load() );
+            testExactCapacity( factory.newInstance() );
+
+            if ( libdeflateFactory.load() && libdeflateFactory.isLoaded() )
+            {
+                testExactCapacity( libdeflateFactory.newInstance() );
+            }
+        }
+        testExactCapacity( new JavaZlib() );
+    }
+
+    private void testExactCapacity(BungeeZlib zlib) throws DataFormatException
+    {
+        // Packets are inflated into buffers of exactly their claimed length
+        for ( int length : new int[]
+        {
+            1, 256, 8192, 100000
+        } )
+        {
+            byte[] data = new byte[ length ];
+            Random random = new Random( length );
+            for ( int i = 0; i < length; i++ )
+            {
+                data[i] = (byte) random.nextInt( 16 );
+            }
+
+            ByteBuf compressed = Unpooled.directBuffer();
+            zlib.init( true, 6 );
+            zlib.process( Unpooled.directBuffer().writeBytes( data ), compressed );
+
+            ByteBuf decompressed = Unpooled.directBuffer( length, length );
+            zlib.init( false, 0 );
+            zlib.process( compressed, decompressed );
+
+            byte[] check = new byte[ decompressed.readableBytes() ];
+            decompressed.readBytes( check );
+            Assert.assertArrayEquals( zlib + " at " + length + " bytes", data, check );
+        }
+        zlib.free();
+    }
+
+    private void testExceedsCapacity(BungeeZlib zlib) throws DataFormatException
+    {
+        // Compresses down to very little, so must not be inflated past what was claimed
+        ByteBuf compressed = Unpooled.directBuffer();
+        zlib.init( true, 9 );
+        zlib.process( Unpooled.directBuffer().writeZero( 1 << 22 ), compressed );
+
+        ByteBuf decompressed = Unpooled.directBuffer( 1024, 1024 );
+        zlib.init( false, 0 );
+        try
+        {
+            zlib.process( compressed, decompressed );
+            Assert.fail( "Inflated past capacity" );
+        } catch ( Exception ex )
+        {
+            // Java and native implementations fail differently
+        }
+        Assert.assertEquals( 1024, decompressed.capacity() );
+        zlib.free();
+    }
+
     private void test(BungeeZlib zlib) throws DataFormatException
     {
         System.out.println( "Testing: " + zlib );
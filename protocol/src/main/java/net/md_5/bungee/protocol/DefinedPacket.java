@@ -2,6 +2,8 @@ package net.md_5.bungee.protocol;
 
 import com.google.common.base.Charsets;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.Recycler;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -11,6 +13,14 @@ import lombok.RequiredArgsConstructor;
 public abstract class DefinedPacket
 {
 
+    /**
+     * Frame lengths are 21 bit VarInts, so never take more than three bytes.
+     */
+    public static final int MAX_FRAME_HEADER_SIZE = 3;
+    // Set when this packet was taken from a PacketPool it should be returned to
+    Recycler.Handle recyclerHandle;
+    boolean pooled;
+
     public static void writeString(String s, ByteBuf buf)
     {
         if ( s.length() > Short.MAX_VALUE )
@@ -18,9 +28,9 @@ public abstract class DefinedPacket
             throw new OverflowPacketException( String.format( "Cannot send string longer than Short.MAX_VALUE (got %s characters)", s.length() ) );
         }
 
-        byte[] b = s.getBytes( Charsets.UTF_8 );
-        writeVarInt( b.length, buf );
-        buf.writeBytes( b );
+        int len = ByteBufUtil.utf8Bytes( s );
+        writeVarInt( len, buf );
+        ByteBufUtil.reserveAndWriteUtf8( buf, s, len );
     }
 
     public static String readString(ByteBuf buf)
@@ -30,11 +40,16 @@ public abstract class DefinedPacket
         {
             throw new OverflowPacketException( String.format( "Cannot receive string longer than Short.MAX_VALUE (got %s characters)", len ) );
         }
+        // toString only checks against the capacity, which may hold stale bytes past the end of the packet
+        if ( len < 0 || len > buf.readableBytes() )
+        {
+            throw new OverflowPacketException( String.format( "Cannot receive string of %s bytes from %s bytes", len, buf.readableBytes() ) );
+        }
 
-        byte[] b = new byte[ len ];
-        buf.readBytes( b );
+        String s = buf.toString( buf.readerIndex(), len, Charsets.UTF_8 );
+        buf.skipBytes( len );
 
-        return new String( b, Charsets.UTF_8 );
+        return s;
     }
 
     public static void writeArray(byte[] b, ByteBuf buf)
@@ -75,6 +90,7 @@ public abstract class DefinedPacket
     public static int[] readVarIntArray(ByteBuf buf)
     {
         int len = readVarInt( buf );
+        checkArrayLength( len, buf );
         int[] ret = new int[ len ];
 
         for ( int i = 0; i < len; i++ )
@@ -97,6 +113,7 @@ public abstract class DefinedPacket
     public static List<String> readStringArray(ByteBuf buf)
     {
         int len = readVarInt( buf );
+        checkArrayLength( len, buf );
         List<String> ret = new ArrayList<>( len );
         for ( int i = 0; i < len; i++ )
         {
@@ -105,6 +122,15 @@ public abstract class DefinedPacket
         return ret;
     }
 
+    // Every element takes at least one byte, so don't size arrays beyond what could possibly be read
+    private static void checkArrayLength(int len, ByteBuf buf)
+    {
+        if ( len < 0 || len > buf.readableBytes() )
+        {
+            throw new OverflowPacketException( String.format( "Cannot receive array of %s elements from %s bytes", len, buf.readableBytes() ) );
+        }
+    }
+
     public static int readVarInt(ByteBuf input)
     {
         return readVarInt( input, 5 );
@@ -135,6 +161,71 @@ public abstract class DefinedPacket
         return out;
     }
 
+    public static int getVarIntSize(int value)
+    {
+        if ( ( value & 0xFFFFFF80 ) == 0 )
+        {
+            return 1;
+        }
+        if ( ( value & 0xFFFFC000 ) == 0 )
+        {
+            return 2;
+        }
+        if ( ( value & 0xFFE00000 ) == 0 )
+        {
+            return 3;
+        }
+        if ( ( value & 0xF0000000 ) == 0 )
+        {
+            return 4;
+        }
+        return 5;
+    }
+
+    /**
+     * Reserves room for a maximum width frame length at the end of the buffer,
+     * to be filled in by {@link #writeFrameHeader(ByteBuf, int)} once the rest
+     * of the frame has been written.
+     *
+     * @param buf the empty buffer the frame is being written to
+     * @return the index of the reserved header
+     */
+    public static int reserveFrameHeader(ByteBuf buf)
+    {
+        int headerIndex = buf.writerIndex();
+        buf.writeMedium( 0 );
+        return headerIndex;
+    }
+
+    /**
+     * Back-patches the length of everything written after the header reserved
+     * by {@link #reserveFrameHeader(ByteBuf)}. The VarInt is written right
+     * aligned against the frame body and the reader index moved to its first
+     * byte, so unused header bytes are never sent.
+     *
+     * @param buf the buffer the frame was written to
+     * @param headerIndex the index returned when reserving the header
+     */
+    public static void writeFrameHeader(ByteBuf buf, int headerIndex)
+    {
+        int bodyIndex = headerIndex + MAX_FRAME_HEADER_SIZE;
+        int length = buf.writerIndex() - bodyIndex;
+        int headerSize = getVarIntSize( length );
+        if ( headerSize > MAX_FRAME_HEADER_SIZE )
+        {
+            throw new OverflowPacketException( String.format( "Cannot send packet longer than 2097151 bytes (got %s bytes)", length ) );
+        }
+
+        int index = bodyIndex - headerSize;
+        buf.readerIndex( index );
+        for ( ; index < bodyIndex - 1; index++ )
+        {
+            buf.setByte( index, ( length & 0x7F ) | 0x80 );
+            length >>>= 7;
+        }
+        buf.setByte( index, length );
+    }
+
     public static void writeVarInt(int value, ByteBuf output)
     {
         int part;
@@ -217,6 +308,35 @@ public abstract class DefinedPacket
 
     public abstract void handle(AbstractPacketHandler handler) throws Exception;
 
+    /**
+     * Clears the state of a packet before it is returned to its pool.
+     */
+    protected void reset()
+    {
+    }
+
+    /**
+     * Returns this packet to its pool, if it was taken from one. It must not
+     * be used again afterwards.
+     */
+    public final void recycle()
+    {
+        if ( pooled )
+        {
+            pooled = false;
+            PacketPool.recycle( this, recyclerHandle );
+        }
+    }
+
+    /**
+     * Stops this packet being returned to its pool, as it is needed beyond
+     * the handling of the frame it was decoded from.
+     */
+    public final void detachFromPool()
+    {
+        pooled = false;
+    }
+
     @Override
     public abstract boolean equals(Object obj);
 
@@ -2,22 +2,101 @@ package net.md_5.bungee.protocol;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
-import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.Setter;
 
-@AllArgsConstructor
 public class MinecraftEncoder extends MessageToByteEncoder<DefinedPacket>
 {
 
+    @Getter
     @Setter
     private Protocol protocol;
     private boolean server;
     @Setter
     private int protocolVersion;
+    /**
+     * Whether this encoder length prefixes the frames it writes. Cleared while
+     * a compressor further down the pipeline does the framing instead.
+     */
+    @Setter
+    private boolean framing = true;
+    private Varint21LengthFieldPrepender prepender;
+
+    public MinecraftEncoder(Protocol protocol, boolean server, int protocolVersion)
+    {
+        this.protocol = protocol;
+        this.server = server;
+        this.protocolVersion = protocolVersion;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception
+    {
+        prepender = ctx.pipeline().get( Varint21LengthFieldPrepender.class );
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+    {
+        if ( prepender == null )
+        {
+            writeFramed( ctx, msg, promise );
+            return;
+        }
+
+        boolean framed = prepender.setFramed( true );
+        try
+        {
+            writeFramed( ctx, msg, promise );
+        } finally
+        {
+            prepender.setFramed( framed );
+        }
+    }
+
+    private void writeFramed(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+    {
+        if ( framing && msg instanceof ByteBuf )
+        {
+            // Already encoded packets are written behind their own header rather than copied into a new frame
+            ByteBuf body = (ByteBuf) msg;
+            ByteBuf header = ctx.alloc().ioBuffer( DefinedPacket.MAX_FRAME_HEADER_SIZE );
+            DefinedPacket.writeVarInt( body.readableBytes(), header );
+
+            ctx.write( header, ctx.voidPromise() );
+            ctx.write( body, promise );
+            return;
+        }
+
+        super.write( ctx, msg, promise );
+    }
 
     @Override
     protected void encode(ChannelHandlerContext ctx, DefinedPacket msg, ByteBuf out) throws Exception
+    {
+        int headerIndex = ( framing ) ? DefinedPacket.reserveFrameHeader( out ) : -1;
+
+        writePacket( protocol, server, protocolVersion, msg, out );
+
+        if ( framing )
+        {
+            DefinedPacket.writeFrameHeader( out, headerIndex );
+        }
+    }
+
+    /**
+     * Writes the id and contents of a packet, without any framing, exactly as
+     * an encoder in the given state would.
+     *
+     * @param protocol the protocol state
+     * @param server whether the packet is sent to a client
+     * @param protocolVersion the protocol version
+     * @param msg the packet to write
+     * @param out the buffer to write to
+     */
+    public static void writePacket(Protocol protocol, boolean server, int protocolVersion, DefinedPacket msg, ByteBuf out)
     {
         Protocol.DirectionData prot = ( server ) ? protocol.TO_CLIENT : protocol.TO_SERVER;
         DefinedPacket.writeVarInt( prot.getId( msg.getClass(), protocolVersion ), out );
@@ -0,0 +1,75 @@
+package net.md_5.bungee.protocol;
+
+import io.netty.util.Recycler;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Opt-in pooling of the packet types decoded for almost every frame. Pooled
+ * packets are returned once the frame they were decoded from has been handled,
+ * see {@link PacketWrapper#trySingleRelease()}, unless
+ * {@link DefinedPacket#detachFromPool()} was called on them first.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class PacketPool
+{
+
+    /**
+     * Whether packets are pooled at all.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean( "net.md_5.bungee.protocol.pool" );
+    /**
+     * Instead of reusing handled packets, clear them and throw them away, so
+     * that anything still holding a reference fails fast rather than seeing
+     * the contents of some later packet.
+     */
+    public static final boolean DEBUG = Boolean.getBoolean( "net.md_5.bungee.protocol.pool.debug" );
+
+    /**
+     * Wraps a packet constructor so that it takes instances from a pool, if
+     * pooling is enabled.
+     *
+     * @param <T> the type of packet
+     * @param constructor creates new packets
+     * @return a supplier of pooled packets, or the constructor itself
+     */
+    public static <T extends DefinedPacket> Supplier<T> pooled(final Supplier<T> constructor)
+    {
+        if ( !ENABLED )
+        {
+            return constructor;
+        }
+
+        final Recycler<T> recycler = new Recycler<T>()
+        {
+            @Override
+            protected T newObject(Handle<T> handle)
+            {
+                T packet = constructor.get();
+                packet.recyclerHandle = handle;
+                return packet;
+            }
+        };
+        return new Supplier<T>()
+        {
+            @Override
+            public T get()
+            {
+                T packet = recycler.get();
+                packet.pooled = true;
+                return packet;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    static void recycle(DefinedPacket packet, Recycler.Handle handle)
+    {
+        packet.reset();
+        if ( !DEBUG )
+        {
+            handle.recycle( packet );
+        }
+    }
+}
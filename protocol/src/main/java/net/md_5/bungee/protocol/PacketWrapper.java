@@ -1,17 +1,37 @@
 package net.md_5.bungee.protocol;
 
 import io.netty.buffer.ByteBuf;
-import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 
-@RequiredArgsConstructor
 public class PacketWrapper
 {
 
     public final DefinedPacket packet;
-    public final ByteBuf buf;
+    public ByteBuf buf;
     @Setter
     private boolean released;
+    private boolean unshared;
+
+    public PacketWrapper(DefinedPacket packet, ByteBuf buf)
+    {
+        this.packet = packet;
+        this.buf = buf;
+    }
+
+    /**
+     * Replaces the buffer, which may be a view of the frame it was decoded
+     * from, with a private copy which can be freely resized.
+     */
+    public void unshare()
+    {
+        if ( !unshared )
+        {
+            ByteBuf copy = buf.copy();
+            buf.release();
+            buf = copy;
+            unshared = true;
+        }
+    }
 
     public void trySingleRelease()
     {
@@ -20,5 +40,9 @@ public class PacketWrapper
             buf.release();
             released = true;
         }
+        if ( packet != null )
+        {
+            packet.recycle();
+        }
     }
 }
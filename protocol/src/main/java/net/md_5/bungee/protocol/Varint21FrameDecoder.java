@@ -1,7 +1,6 @@
 package net.md_5.bungee.protocol;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.CorruptedFrameException;
@@ -15,54 +14,63 @@ public class Varint21FrameDecoder extends ByteToMessageDecoder
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
     {
-        in.markReaderIndex();
-
-        final byte[] buf = new byte[ 3 ];
-        for ( int i = 0; i < buf.length; i++ )
+        // Emit every complete frame in this read, rather than one per callback
+        while ( in.isReadable() )
         {
-            if ( !in.isReadable() )
-            {
-                in.resetReaderIndex();
-                return;
-            }
+            int readerIndex = in.readerIndex();
+            int readable = in.readableBytes();
 
-            buf[i] = in.readByte();
-            if ( buf[i] >= 0 )
+            // Peek the length in place so incomplete frames need no reset
+            int length = 0;
+            int headerLength = 0;
+            while ( true )
             {
-                int length = DefinedPacket.readVarInt( Unpooled.wrappedBuffer( buf ) );
-                if ( length == 0 )
+                if ( headerLength == readable )
                 {
-                    throw new CorruptedFrameException( "Empty Packet!" );
+                    return;
                 }
 
-                if ( in.readableBytes() < length )
+                byte read = in.getByte( readerIndex + headerLength );
+                length |= ( read & 0x7F ) << ( headerLength++ * 7 );
+                if ( read >= 0 )
                 {
-                    in.resetReaderIndex();
-                    return;
-                } else
+                    break;
+                }
+
+                if ( headerLength == 3 )
                 {
-                    if ( in.hasMemoryAddress() )
-                    {
-                        out.add( in.slice( in.readerIndex(), length ).retain() );
-                        in.skipBytes( length );
-                    } else
-                    {
-                        if ( !DIRECT_WARNING )
-                        {
-                            DIRECT_WARNING = true;
-                            System.out.println( "Netty is not using direct IO buffers." );
-                        }
+                    throw new CorruptedFrameException( "length wider than 21-bit" );
+                }
+            }
 
-                        // See https://github.com/SpigotMC/BungeeCord/issues/1717
-                        ByteBuf dst = ctx.alloc().directBuffer( length );
-                        in.readBytes( dst );
-                        out.add( dst );
-                    }
-                    return;
+            if ( length == 0 )
+            {
+                throw new CorruptedFrameException( "Empty Packet!" );
+            }
+
+            if ( readable - headerLength < length )
+            {
+                return;
+            }
+
+            in.skipBytes( headerLength );
+            if ( in.hasMemoryAddress() )
+            {
+                out.add( in.retainedSlice( in.readerIndex(), length ) );
+                in.skipBytes( length );
+            } else
+            {
+                if ( !DIRECT_WARNING )
+                {
+                    DIRECT_WARNING = true;
+                    System.out.println( "Netty is not using direct IO buffers." );
                 }
+
+                // See https://github.com/SpigotMC/BungeeCord/issues/1717
+                ByteBuf dst = ctx.alloc().directBuffer( length );
+                in.readBytes( dst );
+                out.add( dst );
             }
         }
-
-        throw new CorruptedFrameException( "length wider than 21-bit" );
     }
 }
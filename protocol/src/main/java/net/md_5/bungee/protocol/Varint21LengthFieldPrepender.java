@@ -1,43 +1,50 @@
 package net.md_5.bungee.protocol;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
 
-@ChannelHandler.Sharable
-public class Varint21LengthFieldPrepender extends MessageToByteEncoder<ByteBuf>
+/**
+ * Length prefixes buffers written by handlers placed between it and the
+ * packet encoders. {@link MinecraftEncoder} and the compressor write frames
+ * complete with their length, and mark them with {@link #setFramed(boolean)}
+ * while they do so that they are passed on untouched.
+ */
+public class Varint21LengthFieldPrepender extends ChannelOutboundHandlerAdapter
 {
 
-    @Override
-    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception
-    {
-        int bodyLen = msg.readableBytes();
-        int headerLen = varintSize( bodyLen );
-        out.ensureWritable( headerLen + bodyLen );
+    private boolean framed;
 
-        DefinedPacket.writeVarInt( bodyLen, out );
-        out.writeBytes( msg );
+    /**
+     * Sets whether what is written through this handler is already framed.
+     * Must only be called from within the channel's event loop, around a
+     * write made from it.
+     *
+     * @param framed whether writes are already framed
+     * @return the previous setting, to be restored once written
+     */
+    public boolean setFramed(boolean framed)
+    {
+        boolean previous = this.framed;
+        this.framed = framed;
+        return previous;
     }
 
-    private static int varintSize(int paramInt)
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
     {
-        if ( ( paramInt & 0xFFFFFF80 ) == 0 )
-        {
-            return 1;
-        }
-        if ( ( paramInt & 0xFFFFC000 ) == 0 )
+        if ( framed || !( msg instanceof ByteBuf ) )
         {
-            return 2;
+            ctx.write( msg, promise );
+            return;
         }
-        if ( ( paramInt & 0xFFE00000 ) == 0 )
-        {
-            return 3;
-        }
-        if ( ( paramInt & 0xF0000000 ) == 0 )
-        {
-            return 4;
-        }
-        return 5;
+
+        ByteBuf body = (ByteBuf) msg;
+        ByteBuf header = ctx.alloc().ioBuffer( DefinedPacket.getVarIntSize( body.readableBytes() ) );
+        DefinedPacket.writeVarInt( body.readableBytes(), header );
+
+        ctx.write( header, ctx.voidPromise() );
+        ctx.write( body, promise );
     }
 }
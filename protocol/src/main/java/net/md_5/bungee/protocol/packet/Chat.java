@@ -60,6 +60,14 @@ public class Chat extends DefinedPacket
         }
     }
 
+    @Override
+    protected void reset()
+    {
+        message = null;
+        position = 0;
+        sender = null;
+    }
+
     @Override
     public void handle(AbstractPacketHandler handler) throws Exception
     {
@@ -36,6 +36,12 @@ public class KeepAlive extends DefinedPacket
         }
     }
 
+    @Override
+    protected void reset()
+    {
+        randomId = 0;
+    }
+
     @Override
     public void handle(AbstractPacketHandler handler) throws Exception
     {
@@ -123,6 +123,13 @@ public class PlayerListItem extends DefinedPacket
         }
     }
 
+    @Override
+    protected void reset()
+    {
+        action = null;
+        items = null;
+    }
+
     @Override
     public void handle(AbstractPacketHandler handler) throws Exception
     {
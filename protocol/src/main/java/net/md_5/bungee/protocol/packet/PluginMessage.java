@@ -82,6 +82,14 @@ public class PluginMessage extends DefinedPacket
         buf.writeBytes( data );
     }
 
+    @Override
+    protected void reset()
+    {
+        tag = null;
+        data = null;
+        allowExtendedPacket = false;
+    }
+
     @Override
     public void handle(AbstractPacketHandler handler) throws Exception
     {
@@ -81,6 +81,16 @@ public class TabCompleteRequest extends DefinedPacket
         }
     }
 
+    @Override
+    protected void reset()
+    {
+        transactionId = 0;
+        cursor = null;
+        assumeCommand = false;
+        hasPositon = false;
+        position = 0;
+    }
+
     @Override
     public void handle(AbstractPacketHandler handler) throws Exception
     {
@@ -0,0 +1,79 @@
+package net.md_5.bungee.protocol;
+
+import com.google.common.base.Charsets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DefinedPacketTest
+{
+
+    private static final String[] STRINGS =
+    {
+        "", "hello", "\u00e9\u00e8\u00ea", "\u4f60\u597d", "\ud83d\ude00 emoji"
+    };
+
+    @Test
+    public void testStrings()
+    {
+        for ( ByteBuf buf : new ByteBuf[]
+        {
+            Unpooled.buffer(), Unpooled.directBuffer()
+        } )
+        {
+            for ( String s : STRINGS )
+            {
+                DefinedPacket.writeString( s, buf );
+
+                // Must match what the previous byte[] based encoding produced
+                byte[] expected = s.getBytes( Charsets.UTF_8 );
+                Assert.assertEquals( expected.length, DefinedPacket.readVarInt( buf.duplicate() ) );
+
+                Assert.assertEquals( new String( expected, Charsets.UTF_8 ), DefinedPacket.readString( buf ) );
+                Assert.assertFalse( buf.isReadable() );
+            }
+            buf.release();
+        }
+    }
+
+    @Test(expected = OverflowPacketException.class)
+    public void testTruncatedString()
+    {
+        // Spare capacity past the writer index must not be decoded
+        ByteBuf buf = Unpooled.buffer( 64 );
+        DefinedPacket.writeVarInt( 10, buf );
+        buf.writeBytes( new byte[ 5 ] );
+
+        DefinedPacket.readString( buf );
+    }
+
+    @Test(expected = OverflowPacketException.class)
+    public void testNegativeString()
+    {
+        ByteBuf buf = Unpooled.buffer();
+        DefinedPacket.writeVarInt( -1, buf );
+        buf.writeBytes( new byte[ 5 ] );
+
+        DefinedPacket.readString( buf );
+    }
+
+    @Test
+    public void testStringArray()
+    {
+        ByteBuf buf = Unpooled.buffer();
+        DefinedPacket.writeStringArray( Arrays.asList( STRINGS ), buf );
+
+        Assert.assertEquals( Arrays.asList( STRINGS ), DefinedPacket.readStringArray( buf ) );
+    }
+
+    @Test(expected = OverflowPacketException.class)
+    public void testOversizedArray()
+    {
+        ByteBuf buf = Unpooled.buffer();
+        DefinedPacket.writeVarInt( Integer.MAX_VALUE, buf );
+
+        DefinedPacket.readVarIntArray( buf );
+    }
+}
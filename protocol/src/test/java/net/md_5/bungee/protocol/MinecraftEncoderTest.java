@@ -0,0 +1,91 @@
+package net.md_5.bungee.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.md_5.bungee.protocol.packet.KeepAlive;
+import net.md_5.bungee.protocol.packet.PluginMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MinecraftEncoderTest
+{
+
+    private static final int VERSION = ProtocolConstants.MINECRAFT_1_16_1;
+
+    private static ByteBuf writeAll(EmbeddedChannel channel)
+    {
+        ByteBuf wire = Unpooled.buffer();
+        ByteBuf buf;
+        while ( ( buf = channel.readOutbound() ) != null )
+        {
+            wire.writeBytes( buf );
+            buf.release();
+        }
+        return wire;
+    }
+
+    private static ByteBuf readFrame(ByteBuf wire)
+    {
+        int length = DefinedPacket.readVarInt( wire );
+        return wire.readSlice( length );
+    }
+
+    @Test
+    public void testFraming()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel( new MinecraftEncoder( Protocol.GAME, true, VERSION ) );
+        channel.writeOutbound( new KeepAlive( 1234L ) );
+        channel.writeOutbound( new PluginMessage( "test:channel", new byte[ 300 ], false ) );
+
+        ByteBuf wire = writeAll( channel );
+
+        KeepAlive keepAlive = new KeepAlive();
+        ByteBuf frame = readFrame( wire );
+        Assert.assertEquals( Protocol.GAME.TO_CLIENT.getId( KeepAlive.class, VERSION ), DefinedPacket.readVarInt( frame ) );
+        keepAlive.read( frame, ProtocolConstants.Direction.TO_CLIENT, VERSION );
+        Assert.assertEquals( 1234L, keepAlive.getRandomId() );
+        Assert.assertFalse( frame.isReadable() );
+
+        PluginMessage message = new PluginMessage();
+        frame = readFrame( wire );
+        Assert.assertEquals( Protocol.GAME.TO_CLIENT.getId( PluginMessage.class, VERSION ), DefinedPacket.readVarInt( frame ) );
+        message.read( frame, ProtocolConstants.Direction.TO_CLIENT, VERSION );
+        Assert.assertEquals( 300, message.getData().length );
+        Assert.assertFalse( frame.isReadable() );
+
+        Assert.assertFalse( wire.isReadable() );
+    }
+
+    @Test
+    public void testRawFraming()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel( new MinecraftEncoder( Protocol.GAME, true, VERSION ) );
+        ByteBuf body = Unpooled.buffer().writeBytes( new byte[ 200 ] );
+        channel.writeOutbound( body.retain() );
+
+        // Header and body go out separately, the body itself is not copied
+        ByteBuf header = channel.readOutbound();
+        Assert.assertEquals( 200, DefinedPacket.readVarInt( header ) );
+        Assert.assertFalse( header.isReadable() );
+        header.release();
+        Assert.assertSame( body, channel.readOutbound() );
+        Assert.assertTrue( body.release( 2 ) );
+    }
+
+    @Test
+    public void testNoFraming()
+    {
+        MinecraftEncoder encoder = new MinecraftEncoder( Protocol.GAME, true, VERSION );
+        encoder.setFraming( false );
+        EmbeddedChannel channel = new EmbeddedChannel( encoder );
+        channel.writeOutbound( new KeepAlive( 1234L ) );
+        ByteBuf body = Unpooled.buffer().writeBytes( new byte[ 200 ] );
+        channel.writeOutbound( body );
+
+        ByteBuf wire = writeAll( channel );
+        Assert.assertEquals( Protocol.GAME.TO_CLIENT.getId( KeepAlive.class, VERSION ), DefinedPacket.readVarInt( wire ) );
+        Assert.assertEquals( 1234L, wire.readLong() );
+        Assert.assertEquals( 200, wire.readableBytes() );
+    }
+}
@@ -0,0 +1,104 @@
+package net.md_5.bungee.protocol;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import java.lang.reflect.Constructor;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class ProtocolTest
+{
+
+    private static final int BENCHMARK_COUNT = 1 << 22;
+
+    @Test
+    public void testIds()
+    {
+        for ( Protocol protocol : Protocol.values() )
+        {
+            for ( Protocol.DirectionData data : new Protocol.DirectionData[]
+            {
+                protocol.TO_CLIENT, protocol.TO_SERVER
+            } )
+            {
+                for ( int version : ProtocolConstants.SUPPORTED_VERSION_IDS )
+                {
+                    for ( int id = 0; id < Protocol.MAX_PACKET_ID; id++ )
+                    {
+                        DefinedPacket packet = data.createPacket( id, version );
+                        if ( packet != null )
+                        {
+                            Assert.assertEquals( "Wrong id for " + packet.getClass() + " in " + version, id, data.getId( packet.getClass(), version ) );
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnregistered()
+    {
+        Protocol.GAME.TO_SERVER.getId( net.md_5.bungee.protocol.packet.Kick.class, ProtocolConstants.MINECRAFT_1_16_1 );
+    }
+
+    // Lookups as they were before the factory table, through a map of versions
+    // to a constructor per id and a map of classes to ids
+    private static final class LegacyData
+    {
+
+        private final TObjectIntMap<Class<? extends DefinedPacket>> packetMap = new TObjectIntHashMap<>( Protocol.MAX_PACKET_ID );
+        @SuppressWarnings("unchecked")
+        private final Constructor<? extends DefinedPacket>[] packetConstructors = new Constructor[ Protocol.MAX_PACKET_ID ];
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void testBenchmark() throws Exception
+    {
+        Protocol.DirectionData data = Protocol.GAME.TO_CLIENT;
+        int version = ProtocolConstants.MINECRAFT_1_16_1;
+        int id = data.getId( net.md_5.bungee.protocol.packet.KeepAlive.class, version );
+
+        TIntObjectMap<LegacyData> legacy = new TIntObjectHashMap<>();
+        for ( int protocol : ProtocolConstants.SUPPORTED_VERSION_IDS )
+        {
+            LegacyData legacyData = new LegacyData();
+            for ( int packetId = 0; packetId < Protocol.MAX_PACKET_ID; packetId++ )
+            {
+                DefinedPacket packet = data.createPacket( packetId, protocol );
+                if ( packet != null )
+                {
+                    legacyData.packetMap.put( packet.getClass(), packetId );
+                    legacyData.packetConstructors[packetId] = packet.getClass().getDeclaredConstructor();
+                }
+            }
+            legacy.put( protocol, legacyData );
+        }
+
+        for ( int run = 0; run < 2; run++ )
+        {
+            long start = System.nanoTime();
+            for ( int i = 0; i < BENCHMARK_COUNT; i++ )
+            {
+                LegacyData legacyData = legacy.get( version );
+                Class<? extends DefinedPacket> packetClass = legacyData.packetConstructors[id].newInstance().getClass();
+                Assert.assertTrue( legacyData.packetMap.containsKey( packetClass ) );
+                legacy.get( version ).packetMap.get( packetClass );
+            }
+            long reflective = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for ( int i = 0; i < BENCHMARK_COUNT; i++ )
+            {
+                data.getId( data.createPacket( id, version ).getClass(), version );
+            }
+            long table = System.nanoTime() - start;
+
+            System.out.println( "Packet factory iteration: " + BENCHMARK_COUNT + ", Reflective: " + reflective / 1000000 + " ms, Table: " + table / 1000000 + " ms" );
+        }
+    }
+}
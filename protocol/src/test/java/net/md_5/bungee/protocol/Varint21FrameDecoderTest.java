@@ -0,0 +1,137 @@
+package net.md_5.bungee.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.DecoderException;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Varint21FrameDecoderTest
+{
+
+    private static final int BENCHMARK_COUNT = 4096;
+
+    private static ByteBuf frames(Random random, int count, int minSize, int maxSize)
+    {
+        ByteBuf buf = Unpooled.directBuffer();
+        for ( int i = 0; i < count; i++ )
+        {
+            int length = minSize + random.nextInt( maxSize - minSize + 1 );
+            DefinedPacket.writeVarInt( length, buf );
+            for ( int j = 0; j < length; j++ )
+            {
+                buf.writeByte( j );
+            }
+        }
+        return buf;
+    }
+
+    private static int readFrames(EmbeddedChannel channel)
+    {
+        int count = 0;
+        ByteBuf frame;
+        while ( ( frame = channel.readInbound() ) != null )
+        {
+            for ( int i = 0; i < frame.readableBytes(); i++ )
+            {
+                Assert.assertEquals( (byte) i, frame.getByte( frame.readerIndex() + i ) );
+            }
+            frame.release();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testMultipleFrames()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel( new Varint21FrameDecoder() );
+        channel.writeInbound( frames( new Random( 0 ), 50, 1, 300 ) );
+
+        Assert.assertEquals( 50, readFrames( channel ) );
+        Assert.assertFalse( channel.finish() );
+    }
+
+    @Test
+    public void testSplitFrames()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel( new Varint21FrameDecoder() );
+        ByteBuf buf = frames( new Random( 0 ), 20, 100, 20000 );
+
+        int count = 0;
+        while ( buf.isReadable() )
+        {
+            // Split at every possible point, including within the length header
+            channel.writeInbound( buf.readRetainedSlice( Math.min( buf.readableBytes(), 1 + count % 7 ) ) );
+            count += readFrames( channel );
+        }
+        buf.release();
+
+        Assert.assertEquals( 20, count );
+        Assert.assertFalse( channel.finish() );
+    }
+
+    @Test
+    public void testEmptyPacket()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel( new Varint21FrameDecoder() );
+        try
+        {
+            channel.writeInbound( Unpooled.directBuffer().writeByte( 0 ) );
+            Assert.fail( "Empty packet decoded" );
+        } catch ( DecoderException ex )
+        {
+            Assert.assertTrue( ex instanceof CorruptedFrameException );
+        }
+    }
+
+    @Test
+    public void testTooLong()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel( new Varint21FrameDecoder() );
+        try
+        {
+            channel.writeInbound( Unpooled.directBuffer().writeByte( 0x80 ).writeByte( 0x80 ).writeByte( 0x80 ).writeByte( 0x01 ) );
+            Assert.fail( "Length wider than 21-bit decoded" );
+        } catch ( DecoderException ex )
+        {
+            Assert.assertTrue( ex instanceof CorruptedFrameException );
+        }
+    }
+
+    @Test
+    public void testBenchmark()
+    {
+        Random random = new Random( 0 );
+        // Entity movement bursts are mostly 10 - 40 byte packets, with the odd chunk
+        ByteBuf movement = frames( random, 256, 10, 40 );
+        ByteBuf chunks = frames( random, 4, 4096, 32768 );
+
+        for ( int run = 0; run < 6; run++ )
+        {
+            EmbeddedChannel channel = new EmbeddedChannel( new Varint21FrameDecoder() );
+            long start = System.nanoTime();
+            int count = 0;
+            for ( int i = 0; i < BENCHMARK_COUNT; i++ )
+            {
+                channel.writeInbound( movement.retainedDuplicate(), chunks.retainedDuplicate() );
+                ByteBuf frame;
+                while ( ( frame = channel.readInbound() ) != null )
+                {
+                    frame.release();
+                    count++;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            channel.finish();
+
+            System.out.println( "Frame decoder iteration: " + BENCHMARK_COUNT + ", Frames: " + count + ", Elapsed: " + elapsed / 1000000 + " ms" );
+        }
+
+        movement.release();
+        chunks.release();
+    }
+}
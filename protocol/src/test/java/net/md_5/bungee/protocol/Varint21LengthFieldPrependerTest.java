@@ -0,0 +1,49 @@
+package net.md_5.bungee.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.md_5.bungee.protocol.packet.KeepAlive;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Varint21LengthFieldPrependerTest
+{
+
+    private static ByteBuf writeAll(EmbeddedChannel channel)
+    {
+        ByteBuf wire = Unpooled.buffer();
+        ByteBuf buf;
+        while ( ( buf = channel.readOutbound() ) != null )
+        {
+            wire.writeBytes( buf );
+            buf.release();
+        }
+        return wire;
+    }
+
+    @Test
+    public void testUnframed()
+    {
+        // As written by a handler placed between the prepender and the encoder
+        EmbeddedChannel channel = new EmbeddedChannel( new Varint21LengthFieldPrepender() );
+        channel.writeOutbound( Unpooled.wrappedBuffer( new byte[ 300 ] ) );
+
+        ByteBuf wire = writeAll( channel );
+        Assert.assertEquals( 300, DefinedPacket.readVarInt( wire ) );
+        Assert.assertEquals( 300, wire.readableBytes() );
+    }
+
+    @Test
+    public void testFramed()
+    {
+        EmbeddedChannel encoded = new EmbeddedChannel( new MinecraftEncoder( Protocol.GAME, true, ProtocolConstants.MINECRAFT_1_16_1 ) );
+        EmbeddedChannel channel = new EmbeddedChannel( new Varint21LengthFieldPrepender(), new MinecraftEncoder( Protocol.GAME, true, ProtocolConstants.MINECRAFT_1_16_1 ) );
+
+        // Packets, and buffers the encoder frames itself, are only prefixed once
+        encoded.writeOutbound( new KeepAlive( 1234L ), Unpooled.wrappedBuffer( new byte[ 300 ] ) );
+        channel.writeOutbound( new KeepAlive( 1234L ), Unpooled.wrappedBuffer( new byte[ 300 ] ) );
+
+        Assert.assertEquals( writeAll( encoded ), writeAll( channel ) );
+    }
+}
@@ -42,6 +42,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -49,6 +50,7 @@ import jline.console.ConsoleReader;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.Synchronized;
+import net.md_5.bungee.api.ChatMessageType;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.Favicon;
 import net.md_5.bungee.api.ProxyServer;
@@ -83,17 +85,21 @@ import net.md_5.bungee.command.ConsoleCommandSender;
 import net.md_5.bungee.compress.CompressFactory;
 import net.md_5.bungee.conf.Configuration;
 import net.md_5.bungee.conf.YamlConfig;
+import net.md_5.bungee.connection.LoginQueue;
 import net.md_5.bungee.forge.ForgeConstants;
 import net.md_5.bungee.log.BungeeLogger;
 import net.md_5.bungee.log.LoggingOutputStream;
 import net.md_5.bungee.module.ModuleManager;
+import net.md_5.bungee.netty.PacketBroadcaster;
 import net.md_5.bungee.netty.PipelineUtils;
 import net.md_5.bungee.protocol.DefinedPacket;
 import net.md_5.bungee.protocol.ProtocolConstants;
+import net.md_5.bungee.protocol.packet.Chat;
 import net.md_5.bungee.protocol.packet.PluginMessage;
 import net.md_5.bungee.query.RemoteQuery;
 import net.md_5.bungee.scheduler.BungeeScheduler;
 import net.md_5.bungee.util.CaseInsensitiveMap;
+import net.md_5.bungee.util.ChatComponentTransformer;
 import org.fusesource.jansi.AnsiConsole;
 
 /**
@@ -170,6 +176,8 @@ public class BungeeCord extends ProxyServer
             .registerTypeAdapter( Favicon.class, Favicon.getFaviconTypeAdapter() ).create();
     @Getter
     private ConnectionThrottle connectionThrottle;
+    @Getter
+    private LoginQueue loginQueue;
     private final ModuleManager moduleManager = new ModuleManager();
 
     {
@@ -227,16 +235,10 @@ public class BungeeCord extends ProxyServer
 
         if ( !Boolean.getBoolean( "net.md_5.bungee.native.disable" ) )
         {
-            if ( EncryptionUtil.nativeFactory.load() )
-            {
-                logger.info( "Using mbed TLS based native cipher." );
-            } else
-            {
-                logger.info( "Using standard Java JCE cipher." );
-            }
+            logger.info( "Using " + EncryptionUtil.selectCipher() + " cipher." );
             if ( CompressFactory.zlib.load() )
             {
-                logger.info( "Using zlib based native compressor." );
+                logger.info( ( CompressFactory.zlib.isLoaded() ) ? "Using libdeflate based native compressor." : "Using zlib based native compressor." );
             } else
             {
                 logger.info( "Using standard Java compressor." );
@@ -288,6 +290,7 @@ public class BungeeCord extends ProxyServer
         {
             connectionThrottle = new ConnectionThrottle( config.getThrottle(), config.getThrottleLimit() );
         }
+        loginQueue = new LoginQueue( config.getLoginRate(), config.getLoginConcurrency() );
         startListeners();
 
         saveThread.scheduleAtFixedRate( new TimerTask()
@@ -515,10 +518,7 @@ public class BungeeCord extends ProxyServer
         connectionLock.readLock().lock();
         try
         {
-            for ( UserConnection con : connections.values() )
-            {
-                con.unsafe().sendPacket( packet );
-            }
+            PacketBroadcaster.broadcast( connections.values(), packet );
         } finally
         {
             connectionLock.readLock().unlock();
@@ -706,19 +706,43 @@ public class BungeeCord extends ProxyServer
     public void broadcast(BaseComponent... message)
     {
         getConsole().sendMessage( BaseComponent.toLegacyText( message ) );
-        for ( ProxiedPlayer player : getPlayers() )
-        {
-            player.sendMessage( message );
-        }
+        broadcastChat( message );
     }
 
     @Override
     public void broadcast(BaseComponent message)
     {
         getConsole().sendMessage( message.toLegacyText() );
-        for ( ProxiedPlayer player : getPlayers() )
+        broadcastChat( message );
+    }
+
+    private void broadcastChat(final BaseComponent... message)
+    {
+        if ( ChatComponentTransformer.getInstance().hasScoreComponents( message ) )
         {
-            player.sendMessage( message );
+            // Scores are looked up on each player's own scoreboard
+            for ( ProxiedPlayer player : getPlayers() )
+            {
+                player.sendMessage( message );
+            }
+            return;
+        }
+
+        connectionLock.readLock().lock();
+        try
+        {
+            PacketBroadcaster.broadcast( connections.values(), new Function<UserConnection, DefinedPacket>()
+            {
+                @Override
+                public DefinedPacket apply(UserConnection player)
+                {
+                    BaseComponent[] transformed = ChatComponentTransformer.getInstance().transform( player, true, message.clone() );
+                    return new Chat( ComponentSerializer.toString( transformed ), (byte) ChatMessageType.SYSTEM.ordinal() );
+                }
+            } );
+        } finally
+        {
+            connectionLock.readLock().unlock();
         }
     }
 
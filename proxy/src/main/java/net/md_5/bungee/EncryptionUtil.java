@@ -1,23 +1,29 @@
 package net.md_5.bungee;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.logging.Level;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import lombok.Getter;
+import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.jni.NativeCode;
 import net.md_5.bungee.jni.cipher.BungeeCipher;
 import net.md_5.bungee.jni.cipher.JavaCipher;
 import net.md_5.bungee.jni.cipher.NativeCipher;
+import net.md_5.bungee.jni.cipher.OpenSslCipher;
 import net.md_5.bungee.protocol.packet.EncryptionRequest;
 import net.md_5.bungee.protocol.packet.EncryptionResponse;
 
@@ -32,6 +38,14 @@ public class EncryptionUtil
     @Getter
     private static final SecretKey secret = new SecretKeySpec( new byte[ 16 ], "AES" );
     public static final NativeCode<BungeeCipher> nativeFactory = new NativeCode<>( "native-cipher", JavaCipher.class, NativeCipher.class );
+    public static final NativeCode<BungeeCipher> openSslFactory = new NativeCode<>( "native-cipher-openssl", JavaCipher.class, OpenSslCipher.class );
+    /**
+     * Creates the ciphers of new connections, or null for Java's.
+     */
+    private static volatile NativeCode<BungeeCipher> cipherFactory = nativeFactory;
+    // Looking up a provider for each login is slow, so each thread keeps its own
+    private static final ThreadLocal<Cipher> rsaCipher = new ThreadLocal<>();
+    private static final ThreadLocal<MessageDigest> sha1 = new ThreadLocal<>();
 
     static
     {
@@ -57,7 +71,12 @@ public class EncryptionUtil
 
     public static SecretKey getSecret(EncryptionResponse resp, EncryptionRequest request) throws GeneralSecurityException
     {
-        Cipher cipher = Cipher.getInstance( "RSA" );
+        Cipher cipher = rsaCipher.get();
+        if ( cipher == null )
+        {
+            cipher = Cipher.getInstance( "RSA" );
+            rsaCipher.set( cipher );
+        }
         cipher.init( Cipher.DECRYPT_MODE, keys.getPrivate() );
         byte[] decrypted = cipher.doFinal( resp.getVerifyToken() );
 
@@ -70,9 +89,70 @@ public class EncryptionUtil
         return new SecretKeySpec( cipher.doFinal( resp.getSharedSecret() ), "AES" );
     }
 
+    /**
+     * Computes the server hash sent to the session server, which the client
+     * computed the same way when it joined.
+     *
+     * @param serverId the server id of the encryption request
+     * @param sharedKey the key shared with the client
+     * @return the hash in Minecraft's hexadecimal format
+     */
+    public static String getServerHash(String serverId, SecretKey sharedKey) throws GeneralSecurityException
+    {
+        MessageDigest sha = sha1.get();
+        if ( sha == null )
+        {
+            sha = MessageDigest.getInstance( "SHA-1" );
+            sha1.set( sha );
+        }
+
+        sha.update( serverId.getBytes( StandardCharsets.ISO_8859_1 ) );
+        sha.update( sharedKey.getEncoded() );
+        sha.update( keys.getPublic().getEncoded() );
+        return new BigInteger( sha.digest() ).toString( 16 );
+    }
+
+    /**
+     * Loads the native ciphers and picks the first which works, preferring
+     * OpenSSL, then mbed TLS, then Java's.
+     *
+     * @return a description of the picked cipher
+     */
+    public static String selectCipher()
+    {
+        if ( openSslFactory.load() && isUsable( openSslFactory, "OpenSSL" ) )
+        {
+            cipherFactory = openSslFactory;
+            return "OpenSSL based native";
+        }
+        if ( nativeFactory.load() && isUsable( nativeFactory, "mbed TLS" ) )
+        {
+            cipherFactory = nativeFactory;
+            return "mbed TLS based native";
+        }
+
+        cipherFactory = null;
+        return "standard Java JCE";
+    }
+
+    private static boolean isUsable(NativeCode<BungeeCipher> factory, String name)
+    {
+        try
+        {
+            BungeeCipher cipher = factory.newInstance();
+            cipher.init( true, secret );
+            cipher.free();
+            return true;
+        } catch ( GeneralSecurityException | RuntimeException ex )
+        {
+            ProxyServer.getInstance().getLogger().log( Level.WARNING, "Could not use " + name + " cipher", ex );
+            return false;
+        }
+    }
+
     public static BungeeCipher getCipher(boolean forEncryption, SecretKey shared) throws GeneralSecurityException
     {
-        BungeeCipher cipher = nativeFactory.newInstance();
+        BungeeCipher cipher = ( cipherFactory != null ) ? cipherFactory.newInstance() : new JavaCipher();
 
         cipher.init( forEncryption, shared );
         return cipher;
@@ -0,0 +1,131 @@
+package net.md_5.bungee;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.EventLoop;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.SecretKey;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import net.md_5.bungee.api.Callback;
+import net.md_5.bungee.protocol.packet.EncryptionRequest;
+import net.md_5.bungee.protocol.packet.EncryptionResponse;
+import net.md_5.bungee.util.QuietException;
+
+/**
+ * Decrypts the shared secret of online mode logins and computes their server
+ * hash on a few worker threads rather than the event loops, so that a burst
+ * of logins does not hold up the players already connected.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class LoginCrypto
+{
+
+    private static final int THREADS = Integer.getInteger( "net.md_5.bungee.login.crypto.threads", Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 ) );
+    private static final int MAX_QUEUED = Integer.getInteger( "net.md_5.bungee.login.crypto.queue", 1024 );
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor( THREADS, THREADS, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>( MAX_QUEUED ),
+            new ThreadFactoryBuilder().setNameFormat( "Login Crypto #%1$d" ).setDaemon( true ).build() );
+    private static final AtomicLong logins = new AtomicLong();
+    private static final AtomicLong totalTime = new AtomicLong();
+
+    static
+    {
+        executor.allowCoreThreadTimeOut( true );
+    }
+
+    @Data
+    public static class Result
+    {
+
+        private final SecretKey sharedKey;
+        private final String serverHash;
+    }
+
+    /**
+     * Decrypts the shared secret of a login and computes its server hash. The
+     * callback is run on the given event loop, or straight away with an error
+     * if too many logins are already waiting.
+     *
+     * @param response the encryption response of the client
+     * @param request the encryption request sent to the client
+     * @param eventLoop the event loop of the client's connection
+     * @param callback the callback to run with the result
+     */
+    public static void process(final EncryptionResponse response, final EncryptionRequest request, final EventLoop eventLoop, final Callback<Result> callback)
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Result result = null;
+                    Throwable error = null;
+                    try
+                    {
+                        SecretKey sharedKey = EncryptionUtil.getSecret( response, request );
+                        result = new Result( sharedKey, EncryptionUtil.getServerHash( request.getServerId(), sharedKey ) );
+                    } catch ( Throwable t )
+                    {
+                        error = t;
+                    }
+
+                    logins.incrementAndGet();
+                    totalTime.addAndGet( System.nanoTime() - start );
+
+                    final Result done = result;
+                    final Throwable failure = error;
+                    eventLoop.execute( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            callback.done( done, failure );
+                        }
+                    } );
+                }
+            } );
+        } catch ( RejectedExecutionException ex )
+        {
+            callback.done( null, new QuietException( "Too many logins waiting for encryption" ) );
+        }
+    }
+
+    /**
+     * Gets the number of logins waiting for a worker.
+     *
+     * @return the number of waiting logins
+     */
+    public static int getQueueDepth()
+    {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Gets the number of logins processed so far.
+     *
+     * @return the number of logins
+     */
+    public static long getLogins()
+    {
+        return logins.get();
+    }
+
+    /**
+     * Gets the average time from a login being submitted to its result being
+     * ready, including the time spent waiting for a worker.
+     *
+     * @return the average time in nanoseconds, or 0 if there were no logins
+     */
+    public static long getAverageTime()
+    {
+        long count = logins.get();
+        return ( count == 0 ) ? 0 : totalTime.get() / count;
+    }
+}
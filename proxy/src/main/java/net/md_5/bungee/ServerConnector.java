@@ -169,6 +169,7 @@ public class ServerConnector extends PacketHandler
     public void handle(SetCompression setCompression) throws Exception
     {
         ch.setCompressionThreshold( setCompression.getThreshold() );
+        ch.setKeepCompressedFrames( setCompression.getThreshold() == user.getCh().getCompressionThreshold() );
     }
 
     @Override
@@ -394,6 +395,7 @@ public class ServerConnector extends PacketHandler
 
             if ( pluginMessage.getTag().equals( ForgeConstants.FML_HANDSHAKE_TAG ) || pluginMessage.getTag().equals( ForgeConstants.FORGE_REGISTER ) )
             {
+                pluginMessage.detachFromPool();
                 this.handshakeHandler.handle( pluginMessage );
 
                 // We send the message as part of the handler, so don't send it here.
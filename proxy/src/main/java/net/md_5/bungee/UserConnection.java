@@ -2,6 +2,7 @@ package net.md_5.bungee;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
@@ -72,6 +73,7 @@ public final class UserConnection implements ProxiedPlayer
     @NonNull
     private final ProxyServer bungee;
     @NonNull
+    @Getter
     private final ChannelWrapper ch;
     @Getter
     @NonNull
@@ -112,10 +114,8 @@ public final class UserConnection implements ProxiedPlayer
     private final Collection<String> permissions = new CaseInsensitiveSet();
     /*========================================================================*/
     @Getter
-    @Setter
     private int clientEntityId;
     @Getter
-    @Setter
     private int serverEntityId;
     @Getter
     private ClientSettings settings;
@@ -128,6 +128,12 @@ public final class UserConnection implements ProxiedPlayer
     private String displayName;
     @Getter
     private EntityMap entityRewrite;
+    /**
+     * The number of packets which had entity ids, or player UUIDs, changed by
+     * rewriting, not counting those which merely could have held them.
+     */
+    @Getter
+    private volatile long rewrittenPackets;
     private Locale locale;
     /*========================================================================*/
     @Getter
@@ -148,7 +154,7 @@ public final class UserConnection implements ProxiedPlayer
 
     public void init()
     {
-        this.entityRewrite = EntityMap.getEntityMap( getPendingConnection().getVersion() );
+        this.entityRewrite = EntityMap.getEntityMap( getPendingConnection().getVersion(), clientEntityId, serverEntityId );
 
         this.displayName = name;
 
@@ -167,6 +173,25 @@ public final class UserConnection implements ProxiedPlayer
         forgeClientHandler.setFmlTokenInHandshake( this.getPendingConnection().getExtraDataInHandshake().contains( ForgeConstants.FML_HANDSHAKE_TOKEN ) );
     }
 
+    public void setClientEntityId(int clientEntityId)
+    {
+        this.clientEntityId = clientEntityId;
+        this.entityRewrite = EntityMap.getEntityMap( getPendingConnection().getVersion(), clientEntityId, serverEntityId );
+    }
+
+    public void setServerEntityId(int serverEntityId)
+    {
+        this.serverEntityId = serverEntityId;
+        this.entityRewrite = EntityMap.getEntityMap( getPendingConnection().getVersion(), clientEntityId, serverEntityId );
+    }
+
+    // Only called from this player's event loop, which both bridges run on
+    @SuppressFBWarnings("VO_VOLATILE_INCREMENT")
+    public void incrementRewrittenPackets()
+    {
+        rewrittenPackets++;
+    }
+
     public void sendPacket(PacketWrapper packet)
     {
         ch.write( packet );
@@ -0,0 +1,104 @@
+package net.md_5.bungee.compress;
+
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+
+/**
+ * Steps the compression level and threshold of an event loop, so that the
+ * time it spends compressing stays within a budget. Over budget the level is
+ * lowered first and then fewer packets are compressed. Well under budget the
+ * spare time goes back into compression, until the level is that of zlib's
+ * default again.
+ * <p>
+ * The threshold is only ever raised above the one sent to the client, as a
+ * client accepts uncompressed packets of any size but not compressed packets
+ * below its threshold.
+ */
+public final class AdaptiveCompression
+{
+
+    /**
+     * Whether compression adapts to load at all.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean( "net.md_5.bungee.compress.adaptive" );
+    /**
+     * Percentage of time an event loop may spend compressing.
+     */
+    private static final int BUDGET = Integer.getInteger( "net.md_5.bungee.compress.adaptive.budget", 20 );
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos( 1 );
+    //
+    public static final int MIN_LEVEL = 1;
+    public static final int MAX_LEVEL = 6;
+    // Up to 16 times the threshold sent to the client
+    private static final int MAX_THRESHOLD_SHIFT = 4;
+    //
+    @Getter
+    private int level = MAX_LEVEL;
+    private int thresholdShift;
+    private long intervalStart = System.nanoTime();
+    private long busy;
+
+    /**
+     * Gets the threshold to compress at, given the one sent to the client.
+     *
+     * @param threshold the threshold of the connection
+     * @return the threshold to compress at
+     */
+    public int getThreshold(int threshold)
+    {
+        return threshold << thresholdShift;
+    }
+
+    /**
+     * Gets the level to compress at for a connection, which is one higher if
+     * the connection has a backlog of data to send, as it is short of
+     * bandwidth rather than processing time.
+     *
+     * @param backlogged whether the connection is not writable
+     * @return the level to compress at
+     */
+    public int getLevel(boolean backlogged)
+    {
+        return ( backlogged ) ? Math.min( level + 1, MAX_LEVEL ) : level;
+    }
+
+    /**
+     * Records time spent compressing, stepping the level and threshold once
+     * every interval.
+     *
+     * @param start when compressing started, in nanoseconds
+     * @param end when compressing ended, in nanoseconds
+     */
+    public void record(long start, long end)
+    {
+        busy += end - start;
+
+        long elapsed = end - intervalStart;
+        if ( elapsed >= INTERVAL )
+        {
+            long percentage = busy * 100 / elapsed;
+            if ( percentage > BUDGET )
+            {
+                if ( level > MIN_LEVEL )
+                {
+                    level--;
+                } else if ( thresholdShift < MAX_THRESHOLD_SHIFT )
+                {
+                    thresholdShift++;
+                }
+            } else if ( percentage < BUDGET / 2 )
+            {
+                if ( thresholdShift > 0 )
+                {
+                    thresholdShift--;
+                } else if ( level < MAX_LEVEL )
+                {
+                    level++;
+                }
+            }
+
+            busy = 0;
+            intervalStart = end;
+        }
+    }
+}
@@ -3,10 +3,11 @@ package net.md_5.bungee.compress;
 import net.md_5.bungee.jni.NativeCode;
 import net.md_5.bungee.jni.zlib.BungeeZlib;
 import net.md_5.bungee.jni.zlib.JavaZlib;
+import net.md_5.bungee.jni.zlib.LibdeflateZlib;
 import net.md_5.bungee.jni.zlib.NativeZlib;
 
 public class CompressFactory
 {
 
-    public static final NativeCode<BungeeZlib> zlib = new NativeCode<>( "native-compress", JavaZlib.class, NativeZlib.class );
+    public static final NativeCode<BungeeZlib> zlib = new NativeCode<>( "native-libdeflate", new NativeCode<>( "native-compress", JavaZlib.class, NativeZlib.class ), LibdeflateZlib.class );
 }
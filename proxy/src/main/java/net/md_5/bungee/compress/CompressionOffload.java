@@ -0,0 +1,128 @@
+package net.md_5.bungee.compress;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.zip.Deflater;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import net.md_5.bungee.jni.zlib.BungeeZlib;
+
+/**
+ * Compresses large packets on a pool of workers rather than the event loops,
+ * so that deflating a chunk does not hold up every other connection on the
+ * same event loop. See {@link PacketCompressor} for how the order of writes
+ * is kept.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class CompressionOffload
+{
+
+    /**
+     * Size from which packets are compressed by the workers, or -1 to never,
+     * unless set otherwise by {@link PacketCompressor#setOffloadSize(int)}.
+     */
+    public static final int SIZE = Integer.getInteger( "net.md_5.bungee.compress.offload", -1 );
+    private static final int THREADS = Integer.getInteger( "net.md_5.bungee.compress.offload.threads", Runtime.getRuntime().availableProcessors() );
+
+    // Only started once the first packet is offloaded
+    private static class Holder
+    {
+
+        private static final ForkJoinPool POOL = new ForkJoinPool( THREADS, new ForkJoinPool.ForkJoinWorkerThreadFactory()
+        {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+            {
+                return new Worker( pool );
+            }
+        }, null, true );
+    }
+
+    static void execute(Runnable task)
+    {
+        Holder.POOL.execute( task );
+    }
+
+    /**
+     * Gets the deflater of the current worker.
+     *
+     * @param level the compression level
+     * @return the deflater
+     */
+    static BungeeZlib deflater(int level)
+    {
+        return ( (Worker) Thread.currentThread() ).deflater( level );
+    }
+
+    /**
+     * Frees the deflater of the current worker after it failed, so that the
+     * next packet gets a fresh one.
+     *
+     * @param level the compression level
+     */
+    static void discardDeflater(int level)
+    {
+        ( (Worker) Thread.currentThread() ).discard( level );
+    }
+
+    private static class Worker extends ForkJoinWorkerThread
+    {
+
+        private final BungeeZlib[] deflaters = new BungeeZlib[ Deflater.BEST_COMPRESSION + 1 ];
+
+        Worker(ForkJoinPool pool)
+        {
+            super( pool );
+        }
+
+        @Override
+        protected void onStart()
+        {
+            super.onStart();
+            setName( "Compression Worker #" + getPoolIndex() );
+        }
+
+        private BungeeZlib deflater(int level)
+        {
+            if ( level == Deflater.DEFAULT_COMPRESSION )
+            {
+                level = ZlibPool.DEFAULT_LEVEL;
+            }
+
+            BungeeZlib zlib = deflaters[level];
+            if ( zlib == null )
+            {
+                zlib = deflaters[level] = CompressFactory.zlib.newInstance();
+                zlib.init( true, level );
+            }
+            return zlib;
+        }
+
+        private void discard(int level)
+        {
+            if ( level == Deflater.DEFAULT_COMPRESSION )
+            {
+                level = ZlibPool.DEFAULT_LEVEL;
+            }
+
+            if ( deflaters[level] != null )
+            {
+                deflaters[level].free();
+                deflaters[level] = null;
+            }
+        }
+
+        @Override
+        protected void onTermination(Throwable exception)
+        {
+            for ( BungeeZlib zlib : deflaters )
+            {
+                if ( zlib != null )
+                {
+                    zlib.free();
+                }
+            }
+            super.onTermination( exception );
+        }
+    }
+}
@@ -1,35 +1,290 @@
 package net.md_5.bungee.compress;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelException;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import net.md_5.bungee.jni.zlib.BungeeZlib;
 import net.md_5.bungee.protocol.DefinedPacket;
+import net.md_5.bungee.protocol.Varint21LengthFieldPrepender;
 
 public class PacketCompressor extends MessageToByteEncoder<ByteBuf>
 {
 
-    private final BungeeZlib zlib = CompressFactory.zlib.newInstance();
+    @RequiredArgsConstructor
+    private static class Queued
+    {
+
+        private final Object msg;
+        private final ChannelPromise promise;
+        private final boolean framed;
+    }
+    private ChannelHandlerContext ctx;
+    private ZlibPool pool;
+    private BungeeZlib zlib;
+    /**
+     * The threshold sent to the other end of the connection, which adaptive
+     * compression may only raise.
+     */
+    @Getter
     @Setter
     private int threshold = 256;
+    /**
+     * Size from which packets are compressed by {@link CompressionOffload},
+     * or -1 to never.
+     */
+    @Getter
+    @Setter
+    private int offloadSize = CompressionOffload.SIZE;
+    /**
+     * Whether a packet is being compressed by {@link CompressionOffload}, in
+     * which case everything written after it waits in the queue.
+     */
+    @Getter
+    private boolean offloading;
+    private final Deque<Queued> queue = new ArrayDeque<>();
+    private boolean flushQueued;
+    private boolean removed;
+    private Varint21LengthFieldPrepender prepender;
 
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) throws Exception
     {
-        zlib.init( true, Deflater.DEFAULT_COMPRESSION );
+        this.ctx = ctx;
+        pool = ZlibPool.get( ctx.executor() );
+        zlib = pool.zlib( true );
+        prepender = ctx.pipeline().get( Varint21LengthFieldPrepender.class );
     }
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
     {
-        zlib.free();
+        removed = true;
+
+        Queued queued;
+        while ( ( queued = queue.pollFirst() ) != null )
+        {
+            ReferenceCountUtil.release( queued.msg );
+            queued.promise.tryFailure( new ChannelException( "Compressor removed" ) );
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+    {
+        boolean framed = markFramed();
+        try
+        {
+            if ( offloading )
+            {
+                queue.add( new Queued( msg, promise, false ) );
+            } else
+            {
+                writeNow( ctx, msg, promise );
+            }
+        } finally
+        {
+            restoreFramed( framed );
+        }
+    }
+
+    // Everything this writes on is a whole frame, so must not be prefixed again
+    private boolean markFramed()
+    {
+        return prepender != null && prepender.setFramed( true );
+    }
+
+    private void restoreFramed(boolean framed)
+    {
+        if ( prepender != null )
+        {
+            prepender.setFramed( framed );
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception
+    {
+        if ( offloading )
+        {
+            flushQueued = true;
+        } else
+        {
+            ctx.flush();
+        }
+    }
+
+    /**
+     * Gets the level the next packet would be compressed at, which adaptive
+     * compression may lower.
+     *
+     * @return the compression level
+     */
+    public int getLevel()
+    {
+        AdaptiveCompression adaptive = pool.getAdaptive();
+        return ( adaptive != null ) ? adaptive.getLevel( !ctx.channel().isWritable() ) : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Writes a frame which needs no compressing, after anything still being
+     * compressed by {@link CompressionOffload}. Must only be called while
+     * {@link #isOffloading()}.
+     *
+     * @param frame the frame
+     */
+    public void writeFrame(Object frame)
+    {
+        queue.add( new Queued( frame, ctx.voidPromise(), true ) );
+        flushQueued = true;
+    }
+
+    private void writeNow(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+    {
+        if ( offloadSize != -1 && msg instanceof ByteBuf && ( (ByteBuf) msg ).readableBytes() >= offloadSize )
+        {
+            offload( ctx, (ByteBuf) msg, promise );
+        } else
+        {
+            super.write( ctx, msg, promise );
+        }
+    }
+
+    private void offload(final ChannelHandlerContext ctx, final ByteBuf msg, final ChannelPromise promise)
+    {
+        AdaptiveCompression adaptive = pool.getAdaptive();
+        final int level = getLevel();
+        final int threshold = ( adaptive != null ) ? adaptive.getThreshold( this.threshold ) : this.threshold;
+
+        offloading = true;
+        CompressionOffload.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ByteBuf frame = ctx.alloc().ioBuffer();
+                Throwable cause = null;
+                try
+                {
+                    compress( CompressionOffload.deflater( level ), threshold, msg, frame );
+                } catch ( Throwable t )
+                {
+                    // Failed part way, so the stream may not have been reset
+                    CompressionOffload.discardDeflater( level );
+                    frame.release();
+                    frame = null;
+                    cause = t;
+                } finally
+                {
+                    msg.release();
+                }
+
+                final ByteBuf compressed = frame;
+                final Throwable failure = cause;
+                ctx.executor().execute( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        offloaded( ctx, compressed, failure, promise );
+                    }
+                } );
+            }
+        } );
+    }
+
+    private void offloaded(ChannelHandlerContext ctx, ByteBuf frame, Throwable cause, ChannelPromise promise)
+    {
+        boolean framed = markFramed();
+        try
+        {
+            writeOffloaded( ctx, frame, cause, promise );
+        } finally
+        {
+            restoreFramed( framed );
+        }
+    }
+
+    private void writeOffloaded(ChannelHandlerContext ctx, ByteBuf frame, Throwable cause, ChannelPromise promise)
+    {
+        offloading = false;
+        if ( removed )
+        {
+            ReferenceCountUtil.release( frame );
+            promise.tryFailure( new ChannelException( "Compressor removed" ) );
+            return;
+        }
+
+        if ( cause != null )
+        {
+            promise.setFailure( new EncoderException( cause ) );
+        } else
+        {
+            ctx.write( frame, promise );
+        }
+
+        // Write whatever was queued behind it, until the next packet to offload
+        Queued queued;
+        while ( !offloading && ( queued = queue.pollFirst() ) != null )
+        {
+            if ( queued.framed )
+            {
+                ctx.write( queued.msg, queued.promise );
+            } else
+            {
+                try
+                {
+                    writeNow( ctx, queued.msg, queued.promise );
+                } catch ( Throwable t )
+                {
+                    queued.promise.tryFailure( t );
+                }
+            }
+        }
+
+        if ( flushQueued )
+        {
+            ctx.flush();
+            flushQueued = offloading;
+        }
     }
 
     @Override
     protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception
     {
+        AdaptiveCompression adaptive = pool.getAdaptive();
+        if ( adaptive == null )
+        {
+            compress( zlib, threshold, msg, out );
+            return;
+        }
+
+        long start = System.nanoTime();
+        compress( pool.deflater( adaptive.getLevel( !ctx.channel().isWritable() ) ), adaptive.getThreshold( threshold ), msg, out );
+        adaptive.record( start, System.nanoTime() );
+    }
+
+    /**
+     * Writes a complete compressed frame of the given packet to the output.
+     *
+     * @param zlib the deflater to compress with
+     * @param threshold the size at which packets start being compressed
+     * @param msg the encoded packet
+     * @param out the empty buffer to write the frame to
+     */
+    public static void compress(BungeeZlib zlib, int threshold, ByteBuf msg, ByteBuf out) throws DataFormatException
+    {
+        int headerIndex = DefinedPacket.reserveFrameHeader( out );
         int origSize = msg.readableBytes();
         if ( origSize < threshold )
         {
@@ -41,5 +296,7 @@ public class PacketCompressor extends MessageToByteEncoder<ByteBuf>
 
             zlib.process( msg, out );
         }
+
+        DefinedPacket.writeFrameHeader( out, headerIndex );
     }
 }
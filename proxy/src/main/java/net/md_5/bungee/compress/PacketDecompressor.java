@@ -5,29 +5,64 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageDecoder;
 import java.util.List;
+import lombok.Getter;
+import lombok.Setter;
 import net.md_5.bungee.jni.zlib.BungeeZlib;
 import net.md_5.bungee.protocol.DefinedPacket;
+import net.md_5.bungee.protocol.OverflowPacketException;
 
 public class PacketDecompressor extends MessageToMessageDecoder<ByteBuf>
 {
 
-    private final BungeeZlib zlib = CompressFactory.zlib.newInstance();
+    /**
+     * The largest packet a client will accept once decompressed.
+     */
+    private static final int MAX_DECOMPRESSED_SIZE = 2097152;
+    //
+    private BungeeZlib zlib;
+    /**
+     * Whether the frame currently being handled is kept, so it can be
+     * forwarded to a channel with the same threshold without recompressing.
+     */
+    @Setter
+    private boolean keepFrames;
+    /**
+     * The compressed frame of the packet currently being handled, only valid
+     * until the handler returns.
+     */
+    @Getter
+    private ByteBuf frame;
 
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) throws Exception
     {
-        zlib.init( false, 0 );
+        zlib = ZlibPool.get( ctx.executor() ).zlib( false );
     }
 
     @Override
-    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
     {
-        zlib.free();
+        try
+        {
+            super.channelRead( ctx, msg );
+        } finally
+        {
+            if ( frame != null )
+            {
+                frame.release();
+                frame = null;
+            }
+        }
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
     {
+        if ( keepFrames )
+        {
+            frame = in.retainedSlice();
+        }
+
         int size = DefinedPacket.readVarInt( in );
         if ( size == 0 )
         {
@@ -35,7 +70,13 @@ public class PacketDecompressor extends MessageToMessageDecoder<ByteBuf>
             in.skipBytes( in.readableBytes() );
         } else
         {
-            ByteBuf decompressed = ctx.alloc().directBuffer();
+            if ( size < 0 || size > MAX_DECOMPRESSED_SIZE )
+            {
+                throw new OverflowPacketException( "Packet may not be larger than " + MAX_DECOMPRESSED_SIZE + " bytes once decompressed (got " + size + " bytes)" );
+            }
+
+            // Can't grow, so inflating stops as soon as the packet turns out larger than it claims
+            ByteBuf decompressed = ctx.alloc().directBuffer( size, size );
 
             try
             {
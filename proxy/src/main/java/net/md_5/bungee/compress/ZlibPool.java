@@ -0,0 +1,190 @@
+package net.md_5.bungee.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import net.md_5.bungee.jni.zlib.BungeeZlib;
+
+/**
+ * The zlib contexts of an event loop, shared by all of its channels. Every
+ * packet is compressed as a whole and the context reset afterwards, so a
+ * context is only needed while a single packet is being processed.
+ * <p>
+ * A deflate stream holds around 256KB of native memory and an inflate stream
+ * around 40KB. With a compressor and decompressor on both the client and
+ * server connection, per channel contexts cost roughly 580MB per 1000
+ * players, whereas pooled contexts cost that per event loop.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ZlibPool
+{
+
+    private static final ConcurrentMap<EventExecutor, ZlibPool> POOLS = new ConcurrentHashMap<>();
+    private static final AtomicInteger CONTEXTS = new AtomicInteger();
+    // What zlib uses for Deflater.DEFAULT_COMPRESSION
+    public static final int DEFAULT_LEVEL = 6;
+    //
+    private final Contexts inflaters = new Contexts( false, 0 );
+    private final Contexts[] deflaters = new Contexts[ Deflater.BEST_COMPRESSION + 1 ];
+    /**
+     * The compression level and threshold of the event loop, if adaptive
+     * compression is enabled.
+     */
+    @Getter
+    private final AdaptiveCompression adaptive = ( AdaptiveCompression.ENABLED ) ? new AdaptiveCompression() : null;
+
+    /**
+     * Gets the pool of an event loop. It must only be used from within that
+     * event loop, and its contexts are freed once the event loop terminates.
+     *
+     * @param executor the event loop
+     * @return the pool of contexts for the event loop
+     */
+    public static ZlibPool get(EventExecutor executor)
+    {
+        ZlibPool pool = POOLS.get( executor );
+        if ( pool == null )
+        {
+            final ZlibPool created = new ZlibPool();
+            pool = POOLS.putIfAbsent( executor, created );
+            if ( pool == null )
+            {
+                pool = created;
+                executor.terminationFuture().addListener( new FutureListener<Object>()
+                {
+                    @Override
+                    public void operationComplete(Future<Object> future) throws Exception
+                    {
+                        POOLS.remove( executor, created );
+                        created.inflaters.freeAll();
+                        for ( Contexts contexts : created.deflaters )
+                        {
+                            if ( contexts != null )
+                            {
+                                contexts.freeAll();
+                            }
+                        }
+                    }
+                } );
+            }
+        }
+
+        return pool;
+    }
+
+    /**
+     * Gets the number of native contexts currently allocated by all pools.
+     *
+     * @return the number of contexts
+     */
+    public static int getContexts()
+    {
+        return CONTEXTS.get();
+    }
+
+    /**
+     * Gets a zlib which borrows a context from this pool for each packet it
+     * processes, compressing at the default level. Initialising and freeing
+     * it does nothing, as the contexts belong to the pool.
+     *
+     * @param compress whether to compress or decompress
+     * @return the pooled zlib
+     */
+    public BungeeZlib zlib(boolean compress)
+    {
+        return ( compress ) ? deflater( Deflater.DEFAULT_COMPRESSION ) : inflaters;
+    }
+
+    /**
+     * Gets a zlib as per {@link #zlib(boolean)}, which compresses at the
+     * given level.
+     *
+     * @param level the compression level
+     * @return the pooled zlib
+     */
+    public BungeeZlib deflater(int level)
+    {
+        if ( level == Deflater.DEFAULT_COMPRESSION )
+        {
+            level = DEFAULT_LEVEL;
+        }
+
+        Contexts contexts = deflaters[level];
+        if ( contexts == null )
+        {
+            contexts = deflaters[level] = new Contexts( true, level );
+        }
+        return contexts;
+    }
+
+    @RequiredArgsConstructor
+    private static class Contexts implements BungeeZlib
+    {
+
+        private final boolean compress;
+        private final int level;
+        private final Deque<BungeeZlib> available = new ArrayDeque<>();
+
+        @Override
+        public void init(boolean compress, int level)
+        {
+        }
+
+        @Override
+        public void free()
+        {
+        }
+
+        @Override
+        public void process(ByteBuf in, ByteBuf out) throws DataFormatException
+        {
+            BungeeZlib zlib = available.pollFirst();
+            if ( zlib == null )
+            {
+                zlib = CompressFactory.zlib.newInstance();
+                zlib.init( compress, level );
+                CONTEXTS.incrementAndGet();
+            }
+
+            boolean reusable = false;
+            try
+            {
+                zlib.process( in, out );
+                reusable = true;
+            } finally
+            {
+                if ( reusable )
+                {
+                    available.addFirst( zlib );
+                } else
+                {
+                    // Failed part way, so the stream may not have been reset
+                    zlib.free();
+                    CONTEXTS.decrementAndGet();
+                }
+            }
+        }
+
+        private void freeAll()
+        {
+            BungeeZlib zlib;
+            while ( ( zlib = available.pollFirst() ) != null )
+            {
+                zlib.free();
+                CONTEXTS.decrementAndGet();
+            }
+        }
+    }
+}
@@ -59,11 +59,27 @@ public class Configuration implements ProxyConfig
     private int remotePingTimeout = 5000;
     private int throttle = 4000;
     private int throttleLimit = 3;
+    /**
+     * Logins admitted per second, and at any one time, before the rest are
+     * queued. 0 for no limit.
+     */
+    private int loginRate;
+    private int loginConcurrency;
     private boolean ipForward;
     private Favicon favicon;
     private int compressionThreshold = 256;
     private boolean preventProxyConnections;
     private boolean forgeSupport;
+    /**
+     * Whether packets forwarded while handling a read are only flushed once
+     * that read completes, or the budgets below are exceeded. Off by default,
+     * as it changes when players receive packets. It lives here rather than
+     * in a system property since, like the compression threshold, it trades
+     * latency for throughput and is an operator's choice per install.
+     */
+    private boolean batchWrites;
+    private int batchMaxPackets = 64;
+    private int batchMaxBytes = 32768;
 
     public void load()
     {
@@ -94,10 +110,15 @@ public class Configuration implements ProxyConfig
         remotePingTimeout = adapter.getInt( "remote_ping_timeout", remotePingTimeout );
         throttle = adapter.getInt( "connection_throttle", throttle );
         throttleLimit = adapter.getInt( "connection_throttle_limit", throttleLimit );
+        loginRate = adapter.getInt( "login_rate", loginRate );
+        loginConcurrency = adapter.getInt( "login_concurrency", loginConcurrency );
         ipForward = adapter.getBoolean( "ip_forward", ipForward );
         compressionThreshold = adapter.getInt( "network_compression_threshold", compressionThreshold );
         preventProxyConnections = adapter.getBoolean( "prevent_proxy_connections", preventProxyConnections );
         forgeSupport = adapter.getBoolean( "forge_support", forgeSupport );
+        batchWrites = adapter.getBoolean( "batch_writes", batchWrites );
+        batchMaxPackets = adapter.getInt( "batch_max_packets", batchMaxPackets );
+        batchMaxBytes = adapter.getInt( "batch_max_bytes", batchMaxBytes );
 
         disabledCommands = new CaseInsensitiveSet( (Collection<String>) adapter.getList( "disabled_commands", Arrays.asList( "disabledcommandhere" ) ) );
 
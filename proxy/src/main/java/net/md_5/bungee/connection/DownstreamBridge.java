@@ -2,6 +2,7 @@ package net.md_5.bungee.connection;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
@@ -21,6 +22,7 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.ServerConnection;
 import net.md_5.bungee.ServerConnection.KeepAliveData;
@@ -66,10 +68,32 @@ import net.md_5.bungee.tab.TabList;
 public class DownstreamBridge extends PacketHandler
 {
 
+    static final Set<Class<? extends DefinedPacket>> HANDLED_PACKETS = ImmutableSet.of(
+            KeepAlive.class,
+            PlayerListItem.class,
+            ScoreboardObjective.class,
+            ScoreboardScore.class,
+            ScoreboardDisplay.class,
+            net.md_5.bungee.protocol.packet.Team.class,
+            PluginMessage.class,
+            Kick.class,
+            SetCompression.class,
+            TabCompleteResponse.class,
+            BossBar.class,
+            Respawn.class,
+            Commands.class
+    );
+    //
     private final ProxyServer bungee;
     private final UserConnection con;
     private final ServerConnection server;
 
+    @Override
+    public Set<Class<? extends DefinedPacket>> getHandledPackets()
+    {
+        return HANDLED_PACKETS;
+    }
+
     @Override
     public void exception(Throwable t) throws Exception
     {
@@ -119,10 +143,29 @@ public class DownstreamBridge extends PacketHandler
     @Override
     public void handle(PacketWrapper packet) throws Exception
     {
-        con.getEntityRewrite().rewriteClientbound( packet.buf, con.getServerEntityId(), con.getClientEntityId(), con.getPendingConnection().getVersion() );
+        ByteBuf frame = server.getCh().getCompressedFrame();
+        if ( frame != null && !con.getEntityRewrite().isRewrittenClientbound( getPacketId( packet.buf ) ) )
+        {
+            // Nothing to rewrite, so send on exactly what the server compressed
+            con.getCh().writeCompressedFrame( frame.retain() );
+            return;
+        }
+
+        if ( con.getEntityRewrite().rewriteClientbound( packet, con.getServerEntityId(), con.getClientEntityId(), con.getPendingConnection().getVersion() ) )
+        {
+            con.incrementRewrittenPackets();
+        }
         con.sendPacket( packet );
     }
 
+    private static int getPacketId(ByteBuf buf)
+    {
+        int readerIndex = buf.readerIndex();
+        int packetId = DefinedPacket.readVarInt( buf );
+        buf.readerIndex( readerIndex );
+        return packetId;
+    }
+
     @Override
     public void handle(KeepAlive alive) throws Exception
     {
@@ -530,6 +573,7 @@ public class DownstreamBridge extends PacketHandler
     public void handle(SetCompression setCompression) throws Exception
     {
         server.getCh().setCompressionThreshold( setCompression.getThreshold() );
+        server.getCh().setKeepCompressedFrames( setCompression.getThreshold() == con.getCh().getCompressionThreshold() );
     }
 
     @Override
@@ -3,13 +3,13 @@ package net.md_5.bungee.connection;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.gson.Gson;
-import java.math.BigInteger;
+import io.netty.util.concurrent.ScheduledFuture;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URLEncoder;
-import java.security.MessageDigest;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import javax.crypto.SecretKey;
 import lombok.Getter;
@@ -17,6 +17,7 @@ import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.BungeeCord;
 import net.md_5.bungee.BungeeServerInfo;
 import net.md_5.bungee.EncryptionUtil;
+import net.md_5.bungee.LoginCrypto;
 import net.md_5.bungee.UserConnection;
 import net.md_5.bungee.Util;
 import net.md_5.bungee.api.AbstractReconnectHandler;
@@ -55,6 +56,7 @@ import net.md_5.bungee.protocol.packet.Handshake;
 import net.md_5.bungee.protocol.packet.Kick;
 import net.md_5.bungee.protocol.packet.LegacyHandshake;
 import net.md_5.bungee.protocol.packet.LegacyPing;
+import net.md_5.bungee.protocol.packet.LoginPayloadRequest;
 import net.md_5.bungee.protocol.packet.LoginPayloadResponse;
 import net.md_5.bungee.protocol.packet.LoginRequest;
 import net.md_5.bungee.protocol.packet.LoginSuccess;
@@ -70,6 +72,11 @@ import net.md_5.bungee.util.QuietException;
 public class InitialHandler extends PacketHandler implements PendingConnection
 {
 
+    // A login plugin request which clients answer, so that they do not time out whilst waiting in the login queue
+    private static final int QUEUE_KEEP_ALIVE_ID = -1;
+    private static final String QUEUE_KEEP_ALIVE_CHANNEL = "bungeecord:queue";
+    private static final long QUEUE_KEEP_ALIVE_INTERVAL = 10;
+    //
     private final BungeeCord bungee;
     private ChannelWrapper ch;
     @Getter
@@ -82,6 +89,8 @@ public class InitialHandler extends PacketHandler implements PendingConnection
     @Getter
     private final List<PluginMessage> relayMessages = new BoundedArrayList<>( 128 );
     private State thisState = State.HANDSHAKE;
+    private LoginQueue.Ticket loginTicket;
+    private ScheduledFuture<?> queueKeepAlive;
     private final Unsafe unsafe = new Unsafe()
     {
         @Override
@@ -129,6 +138,19 @@ public class InitialHandler extends PacketHandler implements PendingConnection
         this.ch = channel;
     }
 
+    @Override
+    public void disconnected(ChannelWrapper channel) throws Exception
+    {
+        if ( queueKeepAlive != null )
+        {
+            queueKeepAlive.cancel( false );
+        }
+        if ( loginTicket != null )
+        {
+            bungee.getLoginQueue().release( loginTicket );
+        }
+    }
+
     @Override
     public void exception(Throwable t) throws Exception
     {
@@ -156,6 +178,7 @@ public class InitialHandler extends PacketHandler implements PendingConnection
         // TODO: Unregister?
         if ( PluginMessage.SHOULD_RELAY.apply( pluginMessage ) )
         {
+            pluginMessage.detachFromPool();
             relayMessages.add( pluginMessage );
         }
     }
@@ -407,8 +430,37 @@ public class InitialHandler extends PacketHandler implements PendingConnection
             }
         };
 
-        // fire pre login event
-        bungee.getPluginManager().callEvent( new PreLoginEvent( InitialHandler.this, callback ) );
+        final PreLoginEvent preLogin = new PreLoginEvent( InitialHandler.this, callback );
+        loginTicket = bungee.getLoginQueue().enqueue( ch.getHandle().eventLoop(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if ( queueKeepAlive != null )
+                {
+                    queueKeepAlive.cancel( false );
+                    queueKeepAlive = null;
+                }
+                if ( !ch.isClosing() )
+                {
+                    // fire pre login event
+                    bungee.getPluginManager().callEvent( preLogin );
+                }
+            }
+        } );
+
+        // Clients only wait so long for a packet, so keep them waiting whilst queued if they can be
+        if ( !loginTicket.isAdmitted() && getVersion() >= ProtocolConstants.MINECRAFT_1_13 )
+        {
+            queueKeepAlive = ch.getHandle().eventLoop().scheduleAtFixedRate( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    unsafe.sendPacket( new LoginPayloadRequest( QUEUE_KEEP_ALIVE_ID, QUEUE_KEEP_ALIVE_CHANNEL, new byte[ 0 ] ) );
+                }
+            }, QUEUE_KEEP_ALIVE_INTERVAL, QUEUE_KEEP_ALIVE_INTERVAL, TimeUnit.SECONDS );
+        }
     }
 
     @Override
@@ -416,23 +468,44 @@ public class InitialHandler extends PacketHandler implements PendingConnection
     {
         Preconditions.checkState( thisState == State.ENCRYPT, "Not expecting ENCRYPT" );
 
-        SecretKey sharedKey = EncryptionUtil.getSecret( encryptResponse, request );
+        // Nothing can be decoded until the cipher is in place
+        ch.getHandle().config().setAutoRead( false );
+        LoginCrypto.process( encryptResponse, request, ch.getHandle().eventLoop(), new Callback<LoginCrypto.Result>()
+        {
+            @Override
+            public void done(LoginCrypto.Result result, Throwable error)
+            {
+                if ( ch.isClosing() )
+                {
+                    return;
+                }
+
+                try
+                {
+                    if ( error != null )
+                    {
+                        throw error;
+                    }
+                    authenticate( result );
+                } catch ( Throwable t )
+                {
+                    ch.getHandle().pipeline().fireExceptionCaught( t );
+                }
+            }
+        } );
+    }
+
+    private void authenticate(LoginCrypto.Result result) throws Exception
+    {
+        SecretKey sharedKey = result.getSharedKey();
         BungeeCipher decrypt = EncryptionUtil.getCipher( false, sharedKey );
         ch.addBefore( PipelineUtils.FRAME_DECODER, PipelineUtils.DECRYPT_HANDLER, new CipherDecoder( decrypt ) );
         BungeeCipher encrypt = EncryptionUtil.getCipher( true, sharedKey );
         ch.addBefore( PipelineUtils.FRAME_PREPENDER, PipelineUtils.ENCRYPT_HANDLER, new CipherEncoder( encrypt ) );
+        ch.getHandle().config().setAutoRead( true );
 
         String encName = URLEncoder.encode( InitialHandler.this.getName(), "UTF-8" );
-
-        MessageDigest sha = MessageDigest.getInstance( "SHA-1" );
-        for ( byte[] bit : new byte[][]
-        {
-            request.getServerId().getBytes( "ISO_8859_1" ), sharedKey.getEncoded(), EncryptionUtil.keys.getPublic().getEncoded()
-        } )
-        {
-            sha.update( bit );
-        }
-        String encodedHash = URLEncoder.encode( new BigInteger( sha.digest() ).toString( 16 ), "UTF-8" );
+        String encodedHash = URLEncoder.encode( result.getServerHash(), "UTF-8" );
 
         String preventProxy = ( BungeeCord.getInstance().config.isPreventProxyConnections() && getSocketAddress() instanceof InetSocketAddress ) ? "&ip=" + URLEncoder.encode( getAddress().getAddress().getHostAddress(), "UTF-8" ) : "";
         String authURL = "https://sessionserver.mojang.com/session/minecraft/hasJoined?username=" + encName + "&serverId=" + encodedHash + preventProxy;
@@ -550,6 +623,7 @@ public class InitialHandler extends PacketHandler implements PendingConnection
                             userCon.connect( server, null, true, ServerConnectEvent.Reason.JOIN_PROXY );
 
                             thisState = State.FINISHED;
+                            bungee.getLoginQueue().release( loginTicket );
                         }
                     }
                 } );
@@ -563,6 +637,10 @@ public class InitialHandler extends PacketHandler implements PendingConnection
     @Override
     public void handle(LoginPayloadResponse response) throws Exception
     {
+        if ( response.getId() == QUEUE_KEEP_ALIVE_ID && loginTicket != null )
+        {
+            return;
+        }
         disconnect( "Unexpected custom LoginPayloadResponse" );
     }
 
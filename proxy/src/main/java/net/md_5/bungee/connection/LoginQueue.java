@@ -0,0 +1,291 @@
+package net.md_5.bungee.connection;
+
+import io.netty.channel.EventLoop;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Admits logins at a limited rate and number at a time, so that when many
+ * clients reconnect at once the authentication servers and backend servers
+ * see a steady stream of logins rather than all of them together. Logins
+ * which cannot be admitted yet wait in order of arrival.
+ */
+public final class LoginQueue
+{
+
+    private final int rate;
+    private final int concurrency;
+    private final Deque<Ticket> waiting = new ArrayDeque<>();
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private int active;
+    private boolean drainScheduled;
+    private long admitted;
+    private long totalWait;
+    private final Runnable drainTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            Drained drained;
+            synchronized ( LoginQueue.this )
+            {
+                drainScheduled = false;
+                drained = drain();
+            }
+            dispatch( drained );
+        }
+    };
+
+    /**
+     * Creates a login queue.
+     *
+     * @param rate the logins admitted per second, or 0 for no limit
+     * @param concurrency the logins admitted but not yet complete at any one
+     * time, or 0 for no limit
+     */
+    public LoginQueue(int rate, int concurrency)
+    {
+        this.rate = rate;
+        this.concurrency = concurrency;
+        this.tokens = Math.max( rate, 1 );
+    }
+
+    /**
+     * A login which is waiting or has been admitted.
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class Ticket
+    {
+
+        private final EventLoop eventLoop;
+        private final Runnable admit;
+        private final long queued = System.nanoTime();
+        @Getter
+        private volatile boolean admitted;
+        private boolean released;
+    }
+
+    /**
+     * The work left by a drain, which is handed to the event loops once the
+     * lock is no longer held.
+     */
+    private static final class Drained
+    {
+
+        private final List<Ticket> admitted = new ArrayList<>();
+        private Ticket timer;
+        private long delay;
+    }
+
+    /**
+     * Checks whether logins are limited at all.
+     *
+     * @return whether this queue may hold back logins
+     */
+    public boolean isEnabled()
+    {
+        return rate > 0 || concurrency > 0;
+    }
+
+    /**
+     * Queues a login. Once admitted the given task is run on the event loop
+     * of the connection, straight away if the login can be admitted now and
+     * this is called from within that event loop.
+     *
+     * @param eventLoop the event loop of the connection
+     * @param admit the task which carries on with the login
+     * @return the ticket of the login, to be released once it is complete
+     */
+    public Ticket enqueue(EventLoop eventLoop, Runnable admit)
+    {
+        Ticket ticket = new Ticket( eventLoop, admit );
+        if ( !isEnabled() )
+        {
+            ticket.admitted = true;
+            admit.run();
+            return ticket;
+        }
+
+        Drained drained = null;
+        synchronized ( this )
+        {
+            refill();
+            if ( eventLoop.inEventLoop() && waiting.isEmpty() && canAdmit() )
+            {
+                admit( ticket );
+            } else
+            {
+                waiting.add( ticket );
+                drained = drain();
+            }
+        }
+
+        if ( drained == null )
+        {
+            admit.run();
+        } else
+        {
+            dispatch( drained );
+        }
+        return ticket;
+    }
+
+    /**
+     * Releases a login once it is complete or its connection closed, so that
+     * it no longer counts towards the concurrency limit or waits in the
+     * queue. Releasing a ticket more than once does nothing.
+     *
+     * @param ticket the ticket of the login
+     */
+    public void release(Ticket ticket)
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+
+        Drained drained;
+        synchronized ( this )
+        {
+            if ( !discard( ticket ) )
+            {
+                return;
+            }
+            drained = drain();
+        }
+        dispatch( drained );
+    }
+
+    /**
+     * Gets the number of logins waiting to be admitted.
+     *
+     * @return the number of waiting logins
+     */
+    public synchronized int getQueueLength()
+    {
+        return waiting.size();
+    }
+
+    /**
+     * Gets the average time admitted logins spent waiting.
+     *
+     * @return the average wait in nanoseconds, or 0 if none were admitted
+     */
+    public synchronized long getAverageWait()
+    {
+        return ( admitted == 0 ) ? 0 : totalWait / admitted;
+    }
+
+    private boolean canAdmit()
+    {
+        return ( concurrency <= 0 || active < concurrency ) && ( rate <= 0 || tokens >= 1 );
+    }
+
+    private void admit(Ticket ticket)
+    {
+        if ( rate > 0 )
+        {
+            tokens--;
+        }
+        active++;
+        admitted++;
+        totalWait += System.nanoTime() - ticket.queued;
+        ticket.admitted = true;
+    }
+
+    private void refill()
+    {
+        if ( rate <= 0 )
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+        // Up to a second's worth of logins may be admitted at once
+        tokens = Math.min( Math.max( rate, 1 ), tokens + ( now - lastRefill ) * rate / (double) TimeUnit.SECONDS.toNanos( 1 ) );
+        lastRefill = now;
+    }
+
+    private boolean discard(Ticket ticket)
+    {
+        if ( ticket.released )
+        {
+            return false;
+        }
+        ticket.released = true;
+
+        if ( ticket.admitted )
+        {
+            active--;
+        } else
+        {
+            waiting.remove( ticket );
+        }
+        return true;
+    }
+
+    private Drained drain()
+    {
+        refill();
+
+        Drained drained = new Drained();
+        Ticket ticket;
+        while ( canAdmit() && ( ticket = waiting.pollFirst() ) != null )
+        {
+            admit( ticket );
+            drained.admitted.add( ticket );
+        }
+
+        // Only the rate needs waiting out, as releasing a login drains again
+        if ( !waiting.isEmpty() && !drainScheduled && ( concurrency <= 0 || active < concurrency ) )
+        {
+            drainScheduled = true;
+            drained.timer = waiting.peekFirst();
+            drained.delay = (long) Math.ceil( ( 1 - tokens ) * TimeUnit.SECONDS.toNanos( 1 ) / rate );
+        }
+        return drained;
+    }
+
+    // Called without the lock held, as the event loops may be contended or
+    // have shut down. A login whose event loop has shut down is treated as
+    // disconnected, since its connection went with it.
+    private void dispatch(Drained drained)
+    {
+        for ( Ticket ticket : drained.admitted )
+        {
+            try
+            {
+                ticket.eventLoop.execute( ticket.admit );
+            } catch ( RejectedExecutionException ex )
+            {
+                release( ticket );
+            }
+        }
+
+        if ( drained.timer != null )
+        {
+            try
+            {
+                drained.timer.eventLoop.schedule( drainTask, drained.delay, TimeUnit.NANOSECONDS );
+            } catch ( RejectedExecutionException ex )
+            {
+                Drained next;
+                synchronized ( this )
+                {
+                    drainScheduled = false;
+                    discard( drained.timer );
+                    next = drain();
+                }
+                dispatch( next );
+            }
+        }
+    }
+}
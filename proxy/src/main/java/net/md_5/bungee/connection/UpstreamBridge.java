@@ -1,6 +1,7 @@
 package net.md_5.bungee.connection;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.mojang.brigadier.context.StringRange;
 import com.mojang.brigadier.suggestion.Suggestion;
 import com.mojang.brigadier.suggestion.Suggestions;
@@ -8,6 +9,7 @@ import io.netty.channel.Channel;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import net.md_5.bungee.BungeeCord;
 import net.md_5.bungee.ServerConnection.KeepAliveData;
 import net.md_5.bungee.UserConnection;
@@ -22,6 +24,7 @@ import net.md_5.bungee.api.event.TabCompleteEvent;
 import net.md_5.bungee.forge.ForgeConstants;
 import net.md_5.bungee.netty.ChannelWrapper;
 import net.md_5.bungee.netty.PacketHandler;
+import net.md_5.bungee.protocol.DefinedPacket;
 import net.md_5.bungee.protocol.PacketWrapper;
 import net.md_5.bungee.protocol.ProtocolConstants;
 import net.md_5.bungee.protocol.packet.Chat;
@@ -35,6 +38,14 @@ import net.md_5.bungee.protocol.packet.TabCompleteResponse;
 public class UpstreamBridge extends PacketHandler
 {
 
+    static final Set<Class<? extends DefinedPacket>> HANDLED_PACKETS = ImmutableSet.of(
+            KeepAlive.class,
+            Chat.class,
+            TabCompleteRequest.class,
+            ClientSettings.class,
+            PluginMessage.class
+    );
+    //
     private final ProxyServer bungee;
     private final UserConnection con;
 
@@ -114,7 +125,10 @@ public class UpstreamBridge extends PacketHandler
     {
         if ( con.getServer() != null )
         {
-            con.getEntityRewrite().rewriteServerbound( packet.buf, con.getClientEntityId(), con.getServerEntityId(), con.getPendingConnection().getVersion() );
+            if ( con.getEntityRewrite().rewriteServerbound( packet, con.getClientEntityId(), con.getServerEntityId(), con.getPendingConnection().getVersion() ) )
+            {
+                con.incrementRewrittenPackets();
+            }
             con.getServer().getCh().write( packet );
         }
     }
@@ -227,6 +241,7 @@ public class UpstreamBridge extends PacketHandler
             if ( pluginMessage.getTag().equals( ForgeConstants.FML_HANDSHAKE_TAG ) )
             {
                 // Let our forge client handler deal with this packet.
+                pluginMessage.detachFromPool();
                 con.getForgeClientHandler().handle( pluginMessage );
                 throw CancelSendSignal.INSTANCE;
             }
@@ -248,6 +263,7 @@ public class UpstreamBridge extends PacketHandler
         // TODO: Unregister as well?
         if ( PluginMessage.SHOULD_RELAY.apply( pluginMessage ) )
         {
+            pluginMessage.detachFromPool();
             con.getPendingConnection().getRelayMessages().add( pluginMessage );
         }
     }
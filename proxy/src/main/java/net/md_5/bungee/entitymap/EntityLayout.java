@@ -0,0 +1,391 @@
+package net.md_5.bungee.entitymap;
+
+import io.netty.buffer.ByteBuf;
+import java.util.UUID;
+import lombok.Getter;
+import net.md_5.bungee.BungeeCord;
+import net.md_5.bungee.UserConnection;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.protocol.DefinedPacket;
+import net.md_5.bungee.protocol.ProtocolConstants;
+
+/**
+ * Where the entity ids are within a packet, and so how to rewrite them. The
+ * packet ids each layout applies to are declared in {@link EntityMap}.
+ */
+enum EntityLayout
+{
+
+    /**
+     * An int entity id at the start of the packet.
+     */
+    INT( false, false, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            return EntityMap.rewriteInt( packet, oldId, newId, offset );
+        }
+    },
+    /**
+     * A VarInt entity id at the start of the packet.
+     */
+    VARINT( true, false, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            return EntityMap.rewriteVarInt( packet, oldId, newId, offset );
+        }
+    },
+    /**
+     * Attach Entity: the int ids of the attached and holding entities.
+     */
+    ATTACH_ENTITY( false, false, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            boolean changed = EntityMap.rewriteInt( packet, oldId, newId, offset );
+            changed |= EntityMap.rewriteInt( packet, oldId, newId, offset + 4 );
+            return changed;
+        }
+    },
+    /**
+     * Collect Item: the VarInt ids of the collected and collector entities.
+     */
+    COLLECT_ITEM( true, true, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            boolean changed = EntityMap.rewriteVarInt( packet, oldId, newId, offset );
+            changed |= EntityMap.rewriteVarInt( packet, oldId, newId, packet.readerIndex() );
+            return changed;
+        }
+    },
+    /**
+     * Destroy Entities: a VarInt count followed by that many VarInt ids.
+     */
+    DESTROY_ENTITIES( false, true, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            packet.readerIndex( offset );
+            return rewriteArray( packet, oldId, newId );
+        }
+    },
+    /**
+     * Set Passengers: the VarInt id of the vehicle, then an array of
+     * passengers as in {@link #DESTROY_ENTITIES}.
+     */
+    SET_PASSENGERS( true, true, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            boolean changed = EntityMap.rewriteVarInt( packet, oldId, newId, offset );
+            changed |= rewriteArray( packet, oldId, newId );
+            return changed;
+        }
+    },
+    /**
+     * Spawn Object in 1.8, where the owner of arrows and fishing hooks is an
+     * int which is only followed by a velocity when positive.
+     */
+    LEGACY_SPAWN_OBJECT( true, true, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            boolean changed = EntityMap.rewriteVarInt( packet, oldId, newId, offset );
+            int type = packet.readUnsignedByte();
+
+            if ( type == 60 || type == 90 )
+            {
+                packet.skipBytes( 14 );
+                int position = packet.readerIndex();
+                int readId = packet.readInt();
+                int changedId = readId;
+
+                if ( readId == oldId )
+                {
+                    packet.setInt( position, changedId = newId );
+                } else if ( readId == newId )
+                {
+                    packet.setInt( position, changedId = oldId );
+                }
+
+                if ( readId > 0 && changedId <= 0 )
+                {
+                    packet.writerIndex( packet.writerIndex() - 6 );
+                } else if ( changedId > 0 && readId <= 0 )
+                {
+                    packet.ensureWritable( 6 );
+                    packet.writerIndex( packet.writerIndex() + 6 );
+                }
+                changed |= changedId != readId;
+            }
+            return changed;
+        }
+    },
+    /**
+     * Spawn Object, where the data of arrows and fishing hooks is the int id
+     * of their owner, plus one for arrows.
+     */
+    SPAWN_OBJECT( true, false, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            boolean changed = EntityMap.rewriteVarInt( packet, oldId, newId, offset );
+            DefinedPacket.readUUID( packet );
+
+            int type;
+            int arrow;
+            int fishingBobber;
+            int spectralArrow;
+            if ( protocolVersion >= ProtocolConstants.MINECRAFT_1_14 )
+            {
+                type = DefinedPacket.readVarInt( packet );
+                arrow = 2;
+                fishingBobber = ( protocolVersion >= ProtocolConstants.MINECRAFT_1_15 ) ? 102 : 101;
+                spectralArrow = ( protocolVersion >= ProtocolConstants.MINECRAFT_1_15 ) ? 72 : 71;
+            } else
+            {
+                type = packet.readUnsignedByte();
+                arrow = 60;
+                fishingBobber = 90;
+                spectralArrow = 91;
+            }
+
+            if ( type == arrow || type == fishingBobber || type == spectralArrow )
+            {
+                if ( type == arrow || type == spectralArrow )
+                {
+                    oldId = oldId + 1;
+                    newId = newId + 1;
+                }
+
+                packet.skipBytes( 26 ); // double, double, double, byte, byte
+                changed |= EntityMap.rewriteInt( packet, oldId, newId, packet.readerIndex() );
+            }
+            return changed;
+        }
+    },
+    /**
+     * Spawn Player: the VarInt entity id, then the player's UUID, which is
+     * replaced with their online UUID.
+     */
+    SPAWN_PLAYER( true, false, true )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            boolean changed = EntityMap.rewriteVarInt( packet, oldId, newId, offset );
+            int position = packet.readerIndex();
+            UUID uuid = DefinedPacket.readUUID( packet );
+            ProxiedPlayer player;
+            if ( ( player = BungeeCord.getInstance().getPlayerByOfflineUUID( uuid ) ) != null )
+            {
+                changed |= setUUID( packet, position, uuid, player.getUniqueId() );
+            }
+            return changed;
+        }
+    },
+    /**
+     * Combat Event: the VarInt player and int entity ids of the end combat and
+     * entity dead events.
+     */
+    COMBAT_EVENT( false, true, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            packet.readerIndex( offset );
+            int event = packet.readUnsignedByte();
+            boolean changed = false;
+            if ( event == 1 /* End Combat*/ )
+            {
+                DefinedPacket.readVarInt( packet );
+                changed = EntityMap.rewriteInt( packet, oldId, newId, packet.readerIndex() );
+            } else if ( event == 2 /* Entity Dead */ )
+            {
+                changed = EntityMap.rewriteVarInt( packet, oldId, newId, packet.readerIndex() );
+                changed |= EntityMap.rewriteInt( packet, oldId, newId, packet.readerIndex() );
+            }
+            return changed;
+        }
+    },
+    /**
+     * Entity Metadata: the VarInt entity id, then the metadata entries which
+     * may refer to other entities.
+     */
+    METADATA( true, true, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            boolean changed = EntityMap.rewriteVarInt( packet, oldId, newId, offset );
+
+            int fishingHook;
+            int fireworks = -1;
+            int guardianBeam;
+            if ( protocolVersion >= ProtocolConstants.MINECRAFT_1_14 )
+            {
+                fishingHook = 7;
+                fireworks = 8;
+                guardianBeam = ( protocolVersion >= ProtocolConstants.MINECRAFT_1_15 ) ? 16 : 15;
+            } else if ( protocolVersion >= ProtocolConstants.MINECRAFT_1_10 )
+            {
+                fishingHook = 6;
+                if ( protocolVersion >= ProtocolConstants.MINECRAFT_1_11 )
+                {
+                    fireworks = 7;
+                }
+                guardianBeam = 13;
+            } else
+            {
+                fishingHook = 5;
+                guardianBeam = 12;
+            }
+
+            changed |= EntityMap.rewriteMetaVarInt( packet, oldId, newId, fishingHook, fireworks, guardianBeam, protocolVersion );
+            return changed;
+        }
+    },
+    /**
+     * Entity Sound Effect: the VarInt entity id after the sound and category.
+     */
+    ENTITY_SOUND( false, true, false )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            packet.readerIndex( offset );
+            DefinedPacket.readVarInt( packet );
+            DefinedPacket.readVarInt( packet );
+            return EntityMap.rewriteVarInt( packet, oldId, newId, packet.readerIndex() );
+        }
+    },
+    /**
+     * Spectate: the UUID of the target, which is replaced with their offline
+     * UUID when the server does not know their online one.
+     */
+    SPECTATE( false, false, true )
+    {
+        @Override
+        boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion)
+        {
+            if ( !BungeeCord.getInstance().getConfig().isIpForward() )
+            {
+                UUID uuid = new UUID( packet.getLong( offset ), packet.getLong( offset + 8 ) );
+                ProxiedPlayer player;
+                if ( ( player = BungeeCord.getInstance().getPlayer( uuid ) ) != null )
+                {
+                    return setUUID( packet, offset, uuid, ( (UserConnection) player ).getPendingConnection().getOfflineId() );
+                }
+            }
+            return false;
+        }
+    };
+    //
+    private final boolean leadingVarInt;
+    private final boolean variable;
+    /**
+     * Whether player UUIDs are rewritten too, which is still needed when the
+     * client and server entity ids are the same.
+     */
+    @Getter
+    private final boolean rewritingUUIDs;
+
+    EntityLayout(boolean leadingVarInt, boolean variable, boolean rewritingUUIDs)
+    {
+        this.leadingVarInt = leadingVarInt;
+        this.variable = variable;
+        this.rewritingUUIDs = rewritingUUIDs;
+    }
+
+    /**
+     * Rewrites the entity ids in a packet, swapping the old and new ids.
+     *
+     * @param packet the packet
+     * @param offset the index of the packet contents, after its id
+     * @param oldId the id to replace
+     * @param newId the id to replace it with
+     * @param protocolVersion the protocol version of the packet
+     * @return whether any bytes of the packet were changed
+     */
+    abstract boolean rewrite(ByteBuf packet, int offset, int oldId, int newId, int protocolVersion);
+
+    /**
+     * Checks whether rewriting a packet may change its length, so it cannot
+     * be done within a view of the frame it arrived in.
+     *
+     * @param packet the packet
+     * @param offset the index of the packet contents, after its id
+     * @param oldId the id to replace
+     * @param newId the id to replace it with
+     * @return whether the packet needs to be copied first
+     */
+    boolean needsCopy(ByteBuf packet, int offset, int oldId, int newId)
+    {
+        if ( variable )
+        {
+            if ( this == LEGACY_SPAWN_OBJECT && ( oldId > 0 ) != ( newId > 0 ) )
+            {
+                // Whether the owner is followed by a velocity depends on its sign
+                return true;
+            }
+            // Only ids which appear somewhere as a VarInt of a different width can resize the packet
+            return !isSameVarIntSize( oldId, newId ) && EntityMap.mayContainIds( packet, offset, oldId, newId );
+        }
+        if ( !leadingVarInt || DefinedPacket.getVarIntSize( oldId ) == DefinedPacket.getVarIntSize( newId ) )
+        {
+            return false;
+        }
+
+        int readerIndex = packet.readerIndex();
+        packet.readerIndex( offset );
+        int readId = DefinedPacket.readVarInt( packet );
+        packet.readerIndex( readerIndex );
+
+        return readId == oldId || readId == newId;
+    }
+
+    // Metadata may also hold ids plus one or two
+    private static boolean isSameVarIntSize(int oldId, int newId)
+    {
+        for ( int i = 0; i <= 2; i++ )
+        {
+            if ( DefinedPacket.getVarIntSize( oldId + i ) != DefinedPacket.getVarIntSize( newId + i ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean rewriteArray(ByteBuf packet, int oldId, int newId)
+    {
+        boolean changed = false;
+        int count = DefinedPacket.readVarInt( packet );
+        for ( int i = 0; i < count; i++ )
+        {
+            changed |= EntityMap.rewriteVarInt( packet, oldId, newId, packet.readerIndex() );
+        }
+        return changed;
+    }
+
+    private static boolean setUUID(ByteBuf packet, int index, UUID uuid, UUID replacement)
+    {
+        if ( uuid.equals( replacement ) )
+        {
+            return false;
+        }
+        packet.setLong( index, replacement.getMostSignificantBits() );
+        packet.setLong( index + 8, replacement.getLeastSignificantBits() );
+        return true;
+    }
+}
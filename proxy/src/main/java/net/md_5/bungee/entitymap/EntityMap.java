@@ -1,114 +1,497 @@
 package net.md_5.bungee.entitymap;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
-import java.io.DataInputStream;
-import lombok.AccessLevel;
-import lombok.NoArgsConstructor;
+import java.util.Collections;
+import lombok.Data;
 import net.md_5.bungee.protocol.DefinedPacket;
+import net.md_5.bungee.protocol.PacketWrapper;
 import net.md_5.bungee.protocol.ProtocolConstants;
-import se.llbit.nbt.NamedTag;
-import se.llbit.nbt.Tag;
 
 /**
  * Class to rewrite integers within packets.
+ *
+ * The packets containing entity ids are declared once below, as an
+ * {@link EntityLayout} and the packet id it has in each protocol version, then
+ * compiled into a lookup table per version indexed by packet id.
  */
-@NoArgsConstructor(access = AccessLevel.PACKAGE)
-public abstract class EntityMap
+public final class EntityMap
 {
 
-    private final boolean[] clientboundInts = new boolean[ 256 ];
-    private final boolean[] clientboundVarInts = new boolean[ 256 ];
-
-    private final boolean[] serverboundInts = new boolean[ 256 ];
-    private final boolean[] serverboundVarInts = new boolean[ 256 ];
+    private static final int MAX_PACKET_ID = 0xFF;
+    // Same limit as the vanilla NBT reader
+    private static final int MAX_NBT_DEPTH = 512;
+    // Sizes of the fixed width NBT tags, by type
+    private static final int[] TAG_WIDTHS =
+    {
+        0, 1, 2, 4, 8, 4, 8
+    };
+    private static final int MAX_PROTOCOL_VERSION = Collections.max( ProtocolConstants.SUPPORTED_VERSION_IDS );
+    // Indexed directly by protocol version
+    private static final EntityMap[] MAPS = new EntityMap[ MAX_PROTOCOL_VERSION + 1 ];
+    // Only the layouts which still do something when the old and new ids are the same
+    private static final EntityMap[] SAME_ID_MAPS = new EntityMap[ MAX_PROTOCOL_VERSION + 1 ];
+    //
+    private final EntityLayout[] clientbound = new EntityLayout[ MAX_PACKET_ID + 1 ];
+    private final EntityLayout[] serverbound = new EntityLayout[ MAX_PACKET_ID + 1 ];
 
-    // Returns the correct entity map for the protocol version
-    public static EntityMap getEntityMap(int version)
+    static
     {
-        switch ( version )
+        for ( int protocol : ProtocolConstants.SUPPORTED_VERSION_IDS )
         {
-            case ProtocolConstants.MINECRAFT_1_8:
-                return EntityMap_1_8.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_9:
-            case ProtocolConstants.MINECRAFT_1_9_1:
-            case ProtocolConstants.MINECRAFT_1_9_2:
-                return EntityMap_1_9.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_9_4:
-                return EntityMap_1_9_4.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_10:
-                return EntityMap_1_10.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_11:
-            case ProtocolConstants.MINECRAFT_1_11_1:
-                return EntityMap_1_11.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_12:
-                return EntityMap_1_12.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_12_1:
-            case ProtocolConstants.MINECRAFT_1_12_2:
-                return EntityMap_1_12_1.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_13:
-            case ProtocolConstants.MINECRAFT_1_13_1:
-            case ProtocolConstants.MINECRAFT_1_13_2:
-                return EntityMap_1_13.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_14:
-            case ProtocolConstants.MINECRAFT_1_14_1:
-            case ProtocolConstants.MINECRAFT_1_14_2:
-            case ProtocolConstants.MINECRAFT_1_14_3:
-            case ProtocolConstants.MINECRAFT_1_14_4:
-                return EntityMap_1_14.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_15:
-            case ProtocolConstants.MINECRAFT_1_15_1:
-            case ProtocolConstants.MINECRAFT_1_15_2:
-                return EntityMap_1_15.INSTANCE;
-            case ProtocolConstants.MINECRAFT_1_16:
-            case ProtocolConstants.MINECRAFT_1_16_1:
-                return EntityMap_1_16.INSTANCE;
+            MAPS[protocol] = new EntityMap();
+            SAME_ID_MAPS[protocol] = new EntityMap();
         }
-        throw new RuntimeException( "Version " + version + " has no entity map" );
+
+        clientbound( EntityLayout.VARINT, // Spawn Experience Orb : PacketPlayOutSpawnEntityExperienceOrb
+                map( ProtocolConstants.MINECRAFT_1_8, 0x11 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x01 )
+        );
+        clientbound( EntityLayout.VARINT, // Spawn Mob : PacketPlayOutSpawnEntityLiving
+                map( ProtocolConstants.MINECRAFT_1_8, 0x0F ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x03 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x02 )
+        );
+        clientbound( EntityLayout.VARINT, // Spawn Painting : PacketPlayOutSpawnEntityPainting
+                map( ProtocolConstants.MINECRAFT_1_8, 0x10 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x04 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x03 )
+        );
+        clientbound( EntityLayout.VARINT, // Spawn Global Entity
+                map( ProtocolConstants.MINECRAFT_1_8, 0x2C ),
+                removed( ProtocolConstants.MINECRAFT_1_9 )
+        );
+        clientbound( EntityLayout.VARINT, // Animation : PacketPlayOutAnimation
+                map( ProtocolConstants.MINECRAFT_1_8, 0x0B ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x06 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x05 )
+        );
+        clientbound( EntityLayout.VARINT, // Block Break Animation : PacketPlayOutBlockBreakAnimation
+                map( ProtocolConstants.MINECRAFT_1_8, 0x25 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x08 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x09 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x08 )
+        );
+        clientbound( EntityLayout.VARINT, // Use Bed : PacketPlayOutBed
+                map( ProtocolConstants.MINECRAFT_1_8, 0x0A ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x2F ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x30 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x33 ),
+                removed( ProtocolConstants.MINECRAFT_1_14 )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Relative Move : PacketPlayOutRelEntityMove
+                map( ProtocolConstants.MINECRAFT_1_8, 0x15 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x25 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x26 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x28 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x29 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x28 )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Look and Relative Move : PacketPlayOutRelEntityMoveLook
+                map( ProtocolConstants.MINECRAFT_1_8, 0x17 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x26 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x27 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x29 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x2A ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x29 )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Look : PacketPlayOutEntityLook
+                map( ProtocolConstants.MINECRAFT_1_8, 0x16 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x27 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x28 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x2A ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x2B ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x2A )
+        );
+        clientbound( EntityLayout.VARINT, // Entity : PacketPlayOutEntity
+                map( ProtocolConstants.MINECRAFT_1_8, 0x14 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x28 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x25 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x27 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x2B ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x2C ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x2B )
+        );
+        clientbound( EntityLayout.VARINT, // Remove Entity Effect : PacketPlayOutRemoveEntityEffect
+                map( ProtocolConstants.MINECRAFT_1_8, 0x1E ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x31 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x32 ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x33 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x36 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x38 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x39 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x38 )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Head Look : PacketPlayOutEntityHeadRotation
+                map( ProtocolConstants.MINECRAFT_1_8, 0x19 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x34 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x35 ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x36 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x39 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x3B ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x3C ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x3B )
+        );
+        clientbound( EntityLayout.VARINT, // Camera : PacketPlayOutCamera
+                map( ProtocolConstants.MINECRAFT_1_8, 0x43 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x36 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x38 ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x39 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x3C ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x3E ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x3F ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x3E )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Velocity : PacketPlayOutEntityVelocity
+                map( ProtocolConstants.MINECRAFT_1_8, 0x12 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x3B ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x3D ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x3E ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x41 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x45 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x46 )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Equipment : PacketPlayOutEntityEquipment
+                map( ProtocolConstants.MINECRAFT_1_8, 0x04 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x3C ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x3E ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x3F ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x42 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x46 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x47 )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Teleport : PacketPlayOutEntityTeleport
+                map( ProtocolConstants.MINECRAFT_1_8, 0x18 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x4A ),
+                map( ProtocolConstants.MINECRAFT_1_9_4, 0x49 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x4B ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x4C ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x50 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x56 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x57 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x56 )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Properties : PacketPlayOutUpdateAttributes
+                map( ProtocolConstants.MINECRAFT_1_8, 0x20 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x4B ),
+                map( ProtocolConstants.MINECRAFT_1_9_4, 0x4A ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x4D ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x4E ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x52 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x58 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x59 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x58 )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Effect : PacketPlayOutEntityEffect
+                map( ProtocolConstants.MINECRAFT_1_8, 0x1D ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x4C ),
+                map( ProtocolConstants.MINECRAFT_1_9_4, 0x4B ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x4E ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x4F ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x53 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x59 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x5A ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x59 )
+        );
+        clientbound( EntityLayout.VARINT, // Update Entity NBT
+                map( ProtocolConstants.MINECRAFT_1_8, 0x49 ),
+                removed( ProtocolConstants.MINECRAFT_1_9 )
+        );
+        clientbound( EntityLayout.INT, // Entity Status : PacketPlayOutEntityStatus
+                map( ProtocolConstants.MINECRAFT_1_8, 0x1A ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x1B ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x1C ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x1B ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x1C ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x1B )
+        );
+        clientbound( EntityLayout.ATTACH_ENTITY, // Attach Entity : PacketPlayOutAttachEntity
+                map( ProtocolConstants.MINECRAFT_1_8, 0x1B ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x3A ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x3C ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x3D ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x40 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x44 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x45 )
+        );
+        clientbound( EntityLayout.COLLECT_ITEM, // Collect Item : PacketPlayOutCollect
+                map( ProtocolConstants.MINECRAFT_1_8, 0x0D ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x49 ),
+                map( ProtocolConstants.MINECRAFT_1_9_4, 0x48 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x4A ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x4B ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x4F ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x55 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x56 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x55 )
+        );
+        clientbound( EntityLayout.DESTROY_ENTITIES, // Destroy Entities : PacketPlayOutEntityDestroy
+                map( ProtocolConstants.MINECRAFT_1_8, 0x13 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x30 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x31 ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x32 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x35 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x37 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x38 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x37 )
+        );
+        clientbound( EntityLayout.SET_PASSENGERS, // Set Passengers : PacketPlayOutMount
+                map( ProtocolConstants.MINECRAFT_1_9, 0x40 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x42 ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x43 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x46 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x4A ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x4B )
+        );
+        clientbound( EntityLayout.LEGACY_SPAWN_OBJECT, // Spawn Object, before objects had UUIDs
+                map( ProtocolConstants.MINECRAFT_1_8, 0x0E ),
+                removed( ProtocolConstants.MINECRAFT_1_9 )
+        );
+        clientbound( EntityLayout.SPAWN_OBJECT, // Spawn Object : PacketPlayOutSpawnEntity
+                map( ProtocolConstants.MINECRAFT_1_9, 0x00 )
+        );
+        clientbound( EntityLayout.SPAWN_PLAYER, // Spawn Player : PacketPlayOutNamedEntitySpawn
+                map( ProtocolConstants.MINECRAFT_1_8, 0x0C ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x05 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x04 )
+        );
+        clientbound( EntityLayout.COMBAT_EVENT, // Combat Event : PacketPlayOutCombatEvent
+                map( ProtocolConstants.MINECRAFT_1_8, 0x42 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x2C ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x2D ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x2F ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x32 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x33 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x32 )
+        );
+        clientbound( EntityLayout.VARINT, // Entity Metadata, before it could refer to other entities
+                map( ProtocolConstants.MINECRAFT_1_8, 0x1C ),
+                removed( ProtocolConstants.MINECRAFT_1_9 )
+        );
+        clientbound( EntityLayout.METADATA, // Entity Metadata : PacketPlayOutEntityMetadata
+                map( ProtocolConstants.MINECRAFT_1_9, 0x39 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x3B ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x3C ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x3F ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x43 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x44 )
+        );
+        clientbound( EntityLayout.ENTITY_SOUND, // Entity Sound Effect : PacketPlayOutEntitySound
+                map( ProtocolConstants.MINECRAFT_1_14, 0x50 ),
+                map( ProtocolConstants.MINECRAFT_1_15, 0x51 ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x50 )
+        );
+        serverbound( EntityLayout.VARINT, // Use Entity : PacketPlayInUseEntity
+                map( ProtocolConstants.MINECRAFT_1_8, 0x02 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x0A ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x0B ),
+                map( ProtocolConstants.MINECRAFT_1_12_1, 0x0A ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x0D ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x0E )
+        );
+        serverbound( EntityLayout.VARINT, // Entity Action : PacketPlayInEntityAction
+                map( ProtocolConstants.MINECRAFT_1_8, 0x0B ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x14 ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x15 ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x19 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x1B ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x1C )
+        );
+        serverbound( EntityLayout.SPECTATE, // Spectate : PacketPlayInSpectate
+                map( ProtocolConstants.MINECRAFT_1_8, 0x18 ),
+                map( ProtocolConstants.MINECRAFT_1_9, 0x1B ),
+                map( ProtocolConstants.MINECRAFT_1_12, 0x1E ),
+                map( ProtocolConstants.MINECRAFT_1_13, 0x28 ),
+                map( ProtocolConstants.MINECRAFT_1_14, 0x2B ),
+                map( ProtocolConstants.MINECRAFT_1_16, 0x2C )
+        );
+    }
+
+    @Data
+    private static class EntityMapping
+    {
+
+        private final int protocolVersion;
+        private final int packetID;
+    }
+
+    // Helper method
+    private static EntityMapping map(int protocol, int id)
+    {
+        return new EntityMapping( protocol, id );
+    }
+
+    // The packet no longer exists, or no longer needs rewriting, from this version
+    private static EntityMapping removed(int protocol)
+    {
+        return new EntityMapping( protocol, -1 );
+    }
+
+    private static void clientbound(EntityLayout layout, EntityMapping... mappings)
+    {
+        register( layout, ProtocolConstants.Direction.TO_CLIENT, mappings );
     }
 
-    protected void addRewrite(int id, ProtocolConstants.Direction direction, boolean varint)
+    private static void serverbound(EntityLayout layout, EntityMapping... mappings)
     {
-        if ( direction == ProtocolConstants.Direction.TO_CLIENT )
+        register( layout, ProtocolConstants.Direction.TO_SERVER, mappings );
+    }
+
+    private static void register(EntityLayout layout, ProtocolConstants.Direction direction, EntityMapping... mappings)
+    {
+        int mappingIndex = 0;
+        for ( int protocol : ProtocolConstants.SUPPORTED_VERSION_IDS )
         {
-            if ( varint )
+            while ( mappingIndex + 1 < mappings.length && mappings[mappingIndex + 1].protocolVersion <= protocol )
             {
-                clientboundVarInts[id] = true;
-            } else
+                mappingIndex++;
+            }
+
+            EntityMapping mapping = mappings[mappingIndex];
+            if ( protocol < mapping.protocolVersion || mapping.packetID == -1 )
             {
-                clientboundInts[id] = true;
+                continue;
             }
-        } else if ( varint )
-        {
-            serverboundVarInts[id] = true;
-        } else
+
+            register( layout, MAPS[protocol], direction, mapping, protocol );
+            if ( layout.isRewritingUUIDs() )
+            {
+                register( layout, SAME_ID_MAPS[protocol], direction, mapping, protocol );
+            }
+        }
+    }
+
+    private static void register(EntityLayout layout, EntityMap map, ProtocolConstants.Direction direction, EntityMapping mapping, int protocol)
+    {
+        EntityLayout[] layouts = ( direction == ProtocolConstants.Direction.TO_CLIENT ) ? map.clientbound : map.serverbound;
+        Preconditions.checkState( layouts[mapping.packetID] == null, "Duplicate entity mapping for %s in %s", mapping.packetID, protocol );
+        layouts[mapping.packetID] = layout;
+    }
+
+    // Returns the correct entity map for the protocol version
+    public static EntityMap getEntityMap(int version)
+    {
+        return getEntityMap( MAPS, version );
+    }
+
+    /**
+     * Gets the entity map for a player. When their client and server entity
+     * ids are the same, as on the first server they join, this skips every
+     * packet which would only have its entity ids swapped.
+     *
+     * @param version the protocol version
+     * @param clientEntityId the entity id of the player known by the client
+     * @param serverEntityId the entity id of the player on their server
+     * @return the entity map
+     */
+    public static EntityMap getEntityMap(int version, int clientEntityId, int serverEntityId)
+    {
+        return getEntityMap( ( clientEntityId == serverEntityId ) ? SAME_ID_MAPS : MAPS, version );
+    }
+
+    private static EntityMap getEntityMap(EntityMap[] maps, int version)
+    {
+        EntityMap map = ( version >= 0 && version < maps.length ) ? maps[version] : null;
+        if ( map == null )
         {
-            serverboundInts[id] = true;
+            throw new RuntimeException( "Version " + version + " has no entity map" );
         }
+        return map;
     }
 
-    public void rewriteServerbound(ByteBuf packet, int oldId, int newId)
+    /**
+     * Checks whether clientbound packets with the given id may be changed by
+     * {@link #rewriteClientbound(PacketWrapper, int, int, int)}.
+     *
+     * @param packetId the packet id
+     * @return false if such packets are always forwarded unchanged
+     */
+    public boolean isRewrittenClientbound(int packetId)
     {
-        rewrite( packet, oldId, newId, serverboundInts, serverboundVarInts );
+        return packetId < 0 || packetId > MAX_PACKET_ID || clientbound[packetId] != null;
+    }
+
+    /**
+     * Rewrites the entity ids in a serverbound packet.
+     *
+     * @param packet the packet, which may be unshared if it needs to grow
+     * @param oldId the id to replace
+     * @param newId the id to replace it with
+     * @param protocolVersion the protocol version
+     * @return whether any bytes of the packet were changed
+     */
+    public boolean rewriteServerbound(PacketWrapper packet, int oldId, int newId, int protocolVersion)
+    {
+        return rewrite( packet, oldId, newId, protocolVersion, serverbound );
     }
 
     public void rewriteServerbound(ByteBuf packet, int oldId, int newId, int protocolVersion)
     {
-        rewriteServerbound( packet, oldId, newId );
+        rewrite( packet, oldId, newId, protocolVersion, serverbound );
     }
 
-    public void rewriteClientbound(ByteBuf packet, int oldId, int newId)
+    /**
+     * Rewrites the entity ids in a clientbound packet.
+     *
+     * @param packet the packet, which may be unshared if it needs to grow
+     * @param oldId the id to replace
+     * @param newId the id to replace it with
+     * @param protocolVersion the protocol version
+     * @return whether any bytes of the packet were changed
+     */
+    public boolean rewriteClientbound(PacketWrapper packet, int oldId, int newId, int protocolVersion)
     {
-        rewrite( packet, oldId, newId, clientboundInts, clientboundVarInts );
+        return rewrite( packet, oldId, newId, protocolVersion, clientbound );
     }
 
     public void rewriteClientbound(ByteBuf packet, int oldId, int newId, int protocolVersion)
     {
-        rewriteClientbound( packet, oldId, newId );
+        rewrite( packet, oldId, newId, protocolVersion, clientbound );
+    }
+
+    private static EntityLayout getLayout(EntityLayout[] layouts, int packetId)
+    {
+        return ( packetId >= 0 && packetId <= MAX_PACKET_ID ) ? layouts[packetId] : null;
     }
 
-    protected static void rewriteInt(ByteBuf packet, int oldId, int newId, int offset)
+    // Inbound packets are views of the frame they arrived in, which can be
+    // rewritten in place but not grown. Only copy those which may need to be.
+    private static boolean rewrite(PacketWrapper packet, int oldId, int newId, int protocolVersion, EntityLayout[] layouts)
+    {
+        ByteBuf buf = packet.buf;
+        int readerIndex = buf.readerIndex();
+        EntityLayout layout = getLayout( layouts, DefinedPacket.readVarInt( buf ) );
+        int packetIdLength = buf.readerIndex() - readerIndex;
+        buf.readerIndex( readerIndex );
+
+        if ( layout != null )
+        {
+            if ( layout.needsCopy( buf, readerIndex + packetIdLength, oldId, newId ) )
+            {
+                packet.unshare();
+                buf = packet.buf;
+                readerIndex = buf.readerIndex();
+            }
+
+            boolean changed = layout.rewrite( buf, readerIndex + packetIdLength, oldId, newId, protocolVersion );
+            buf.readerIndex( readerIndex );
+            return changed;
+        }
+        return false;
+    }
+
+    private static void rewrite(ByteBuf packet, int oldId, int newId, int protocolVersion, EntityLayout[] layouts)
+    {
+        int readerIndex = packet.readerIndex();
+        EntityLayout layout = getLayout( layouts, DefinedPacket.readVarInt( packet ) );
+        if ( layout != null )
+        {
+            layout.rewrite( packet, packet.readerIndex(), oldId, newId, protocolVersion );
+        }
+        packet.readerIndex( readerIndex );
+    }
+
+    static boolean rewriteInt(ByteBuf packet, int oldId, int newId, int offset)
     {
         int readId = packet.getInt( offset );
         if ( readId == oldId )
@@ -117,38 +500,98 @@ public abstract class EntityMap
         } else if ( readId == newId )
         {
             packet.setInt( offset, oldId );
+        } else
+        {
+            return false;
         }
+        return oldId != newId;
     }
 
-    @SuppressFBWarnings("DLS_DEAD_LOCAL_STORE")
-    protected static void rewriteVarInt(ByteBuf packet, int oldId, int newId, int offset)
+    // Leaves the reader index after the, possibly rewritten, VarInt
+    static boolean rewriteVarInt(ByteBuf packet, int oldId, int newId, int offset)
     {
-        // Need to rewrite the packet because VarInts are variable length
+        packet.readerIndex( offset );
         int readId = DefinedPacket.readVarInt( packet );
-        int readIdLength = packet.readerIndex() - offset;
         if ( readId == oldId || readId == newId )
         {
-            ByteBuf data = packet.copy();
+            int readIdLength = packet.readerIndex() - offset;
+            int replacement = ( readId == oldId ) ? newId : oldId;
+            int replacementLength = DefinedPacket.getVarIntSize( replacement );
+
+            if ( replacementLength != readIdLength )
+            {
+                // VarInts are variable length, so shift the rest of the packet once to fit
+                int trailing = packet.writerIndex() - packet.readerIndex();
+                if ( replacementLength > readIdLength )
+                {
+                    packet.ensureWritable( replacementLength - readIdLength );
+                }
+                moveBytes( packet, offset + readIdLength, offset + replacementLength, trailing );
+                packet.readerIndex( offset );
+                packet.writerIndex( offset + replacementLength + trailing );
+            }
+
+            int previous = packet.writerIndex();
             packet.readerIndex( offset );
             packet.writerIndex( offset );
-            DefinedPacket.writeVarInt( readId == oldId ? newId : oldId, packet );
-            packet.writeBytes( data );
-            data.release();
+            DefinedPacket.writeVarInt( replacement, packet );
+            packet.writerIndex( previous );
+            packet.readerIndex( offset + replacementLength );
+            return oldId != newId;
         }
+        return false;
     }
 
-    protected static void rewriteMetaVarInt(ByteBuf packet, int oldId, int newId, int metaIndex)
+    // Copies bytes within a packet, where the source and destination may overlap
+    private static void moveBytes(ByteBuf packet, int from, int to, int length)
     {
-        rewriteMetaVarInt( packet, oldId, newId, metaIndex, -1 );
+        if ( packet.hasArray() )
+        {
+            System.arraycopy( packet.array(), packet.arrayOffset() + from, packet.array(), packet.arrayOffset() + to, length );
+        } else if ( to > from )
+        {
+            for ( int i = length - 1; i >= 0; i-- )
+            {
+                packet.setByte( to + i, packet.getByte( from + i ) );
+            }
+        } else
+        {
+            for ( int i = 0; i < length; i++ )
+            {
+                packet.setByte( to + i, packet.getByte( from + i ) );
+            }
+        }
     }
 
-    protected static void rewriteMetaVarInt(ByteBuf packet, int oldId, int newId, int metaIndex, int protocolVersion)
+    /**
+     * Rewrites the entity ids referred to by metadata entries, in one pass
+     * over the metadata following the reader index.
+     *
+     * @param packet the packet
+     * @param oldId the id to replace
+     * @param newId the id to replace it with
+     * @param hookIndex the index of an entry holding an entity id plus one
+     * @param fireworksIndex the index of an entry holding an entity id, or -1
+     * @param beamIndex the index of an entry holding an entity id
+     * @param protocolVersion the protocol version
+     * @return whether any id was changed
+     */
+    static boolean rewriteMetaVarInt(ByteBuf packet, int oldId, int newId, int hookIndex, int fireworksIndex, int beamIndex, int protocolVersion)
     {
         int readerIndex = packet.readerIndex();
+        if ( !mayContainIds( packet, readerIndex, oldId, newId ) )
+        {
+            // Most metadata refers to no other entity, so don't parse it all to find out
+            return false;
+        }
+
+        boolean changed = false;
 
         short index;
         while ( ( index = packet.readUnsignedByte() ) != 0xFF )
         {
+            // How much the entity id held by this entry is offset by, if it holds one
+            int idOffset = ( index == hookIndex ) ? 1 : ( index == fireworksIndex || index == beamIndex ) ? 0 : -1;
             int type = DefinedPacket.readVarInt( packet );
             if ( protocolVersion >= ProtocolConstants.MINECRAFT_1_13 )
             {
@@ -210,13 +653,13 @@ public abstract class EntityMap
                     packet.skipBytes( 1 ); // byte
                     break;
                 case 1:
-                    if ( index == metaIndex )
+                    if ( idOffset != -1 )
+                    {
+                        changed |= rewriteVarInt( packet, oldId + idOffset, newId + idOffset, packet.readerIndex() );
+                    } else
                     {
-                        int position = packet.readerIndex();
-                        rewriteVarInt( packet, oldId, newId, position );
-                        packet.readerIndex( position );
+                        DefinedPacket.readVarInt( packet );
                     }
-                    DefinedPacket.readVarInt( packet );
                     break;
                 case 2:
                     packet.skipBytes( 4 ); // float
@@ -256,11 +699,7 @@ public abstract class EntityMap
                     DefinedPacket.readVarInt( packet );
                     break;
                 case 13:
-                    Tag tag = NamedTag.read( new DataInputStream( new ByteBufInputStream( packet ) ) );
-                    if ( tag.isError() )
-                    {
-                        throw new RuntimeException( tag.error() );
-                    }
+                    skipNamedTag( packet );
                     break;
                 case 15:
                     DefinedPacket.readVarInt( packet );
@@ -268,13 +707,14 @@ public abstract class EntityMap
                     DefinedPacket.readVarInt( packet );
                     break;
                 case 16:
-                    if ( index == metaIndex )
+                    // Optional, so stored plus one
+                    if ( idOffset != -1 )
+                    {
+                        changed |= rewriteVarInt( packet, oldId + idOffset + 1, newId + idOffset + 1, packet.readerIndex() );
+                    } else
                     {
-                        int position = packet.readerIndex();
-                        rewriteVarInt( packet, oldId + 1, newId + 1, position );
-                        packet.readerIndex( position );
+                        DefinedPacket.readVarInt( packet );
                     }
-                    DefinedPacket.readVarInt( packet );
                     break;
                 case 17:
                     DefinedPacket.readVarInt( packet );
@@ -285,6 +725,49 @@ public abstract class EntityMap
         }
 
         packet.readerIndex( readerIndex );
+        return changed;
+    }
+
+    // Checks for the VarInt encoding of any id, or id plus one or two, which
+    // metadata entries could hold. Finding none rules out needing to rewrite.
+    static boolean mayContainIds(ByteBuf packet, int from, int oldId, int newId)
+    {
+        for ( int offset = 0; offset <= 2; offset++ )
+        {
+            if ( containsVarInt( packet, from, oldId + offset ) || containsVarInt( packet, from, newId + offset ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsVarInt(ByteBuf packet, int from, int value)
+    {
+        byte first = (byte) ( ( ( value & ~0x7F ) == 0 ) ? value : ( value & 0x7F ) | 0x80 );
+        int end = packet.writerIndex();
+        for ( int i = packet.indexOf( from, end, first ); i != -1; i = packet.indexOf( i + 1, end, first ) )
+        {
+            int read = 0;
+            int bytes = 0;
+            byte in;
+            do
+            {
+                if ( i + bytes >= end || bytes >= 5 )
+                {
+                    read = ~value; // Truncated, so can't match
+                    break;
+                }
+                in = packet.getByte( i + bytes );
+                read |= ( in & 0x7F ) << ( bytes++ * 7 );
+            } while ( ( in & 0x80 ) == 0x80 );
+
+            if ( read == value )
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static void readSkipSlot(ByteBuf packet, int protocolVersion)
@@ -297,34 +780,90 @@ public abstract class EntityMap
             }
             packet.skipBytes( ( protocolVersion >= ProtocolConstants.MINECRAFT_1_13 ) ? 1 : 3 ); // byte vs byte, short
 
-            int position = packet.readerIndex();
-            if ( packet.readByte() != 0 )
-            {
-                packet.readerIndex( position );
+            skipNamedTag( packet );
+        }
+    }
 
-                Tag tag = NamedTag.read( new DataInputStream( new ByteBufInputStream( packet ) ) );
-                if ( tag.isError() )
-                {
-                    throw new RuntimeException( tag.error() );
-                }
-            }
+    // Skips over NBT without decoding it, where an empty tag is a single zero
+    private static void skipNamedTag(ByteBuf packet)
+    {
+        int type = packet.readUnsignedByte();
+        if ( type != 0 )
+        {
+            packet.skipBytes( packet.readUnsignedShort() ); // name
+            skipTag( packet, type, 0 );
         }
     }
 
-    // Handles simple packets
-    private static void rewrite(ByteBuf packet, int oldId, int newId, boolean[] ints, boolean[] varints)
+    private static void skipTag(ByteBuf packet, int type, int depth)
     {
-        int readerIndex = packet.readerIndex();
-        int packetId = DefinedPacket.readVarInt( packet );
-        int packetIdLength = packet.readerIndex() - readerIndex;
+        if ( depth > MAX_NBT_DEPTH )
+        {
+            throw new IllegalArgumentException( "NBT nested deeper than " + MAX_NBT_DEPTH );
+        }
 
-        if ( ints[packetId] )
+        switch ( type )
         {
-            rewriteInt( packet, oldId, newId, readerIndex + packetIdLength );
-        } else if ( varints[packetId] )
+            case 1: // byte
+                packet.skipBytes( 1 );
+                break;
+            case 2: // short
+                packet.skipBytes( 2 );
+                break;
+            case 3: // int
+            case 5: // float
+                packet.skipBytes( 4 );
+                break;
+            case 4: // long
+            case 6: // double
+                packet.skipBytes( 8 );
+                break;
+            case 7: // byte array
+                skipArray( packet, packet.readInt(), 1 );
+                break;
+            case 8: // string
+                packet.skipBytes( packet.readUnsignedShort() );
+                break;
+            case 9: // list
+                int listType = packet.readUnsignedByte();
+                int length = packet.readInt();
+                int width = ( listType >= 1 && listType <= 6 ) ? TAG_WIDTHS[listType] : 0;
+                if ( width != 0 )
+                {
+                    skipArray( packet, length, width );
+                } else
+                {
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        skipTag( packet, listType, depth + 1 );
+                    }
+                }
+                break;
+            case 10: // compound
+                int childType;
+                while ( ( childType = packet.readUnsignedByte() ) != 0 )
+                {
+                    packet.skipBytes( packet.readUnsignedShort() ); // name
+                    skipTag( packet, childType, depth + 1 );
+                }
+                break;
+            case 11: // int array
+                skipArray( packet, packet.readInt(), 4 );
+                break;
+            case 12: // long array
+                skipArray( packet, packet.readInt(), 8 );
+                break;
+            default:
+                throw new IllegalArgumentException( "Unknown NBT tag type " + type );
+        }
+    }
+
+    private static void skipArray(ByteBuf packet, int length, int width)
+    {
+        if ( length < 0 || (long) length * width > packet.readableBytes() )
         {
-            rewriteVarInt( packet, oldId, newId, readerIndex + packetIdLength );
+            throw new IndexOutOfBoundsException( "NBT array of " + length + " exceeds packet" );
         }
-        packet.readerIndex( readerIndex );
+        packet.skipBytes( length * width );
     }
 }
@@ -0,0 +1,177 @@
+package net.md_5.bungee.http;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The idle keep-alive connections of an event loop, by the scheme, host and
+ * port they are connected to. Reusing a connection saves the TCP and TLS
+ * handshakes, which would otherwise be repeated for every login.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+final class ConnectionPool
+{
+
+    private static final ConcurrentMap<EventLoop, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+    private static final int MAX_IDLE = 16;
+    // Well below the keep-alive timeout of most servers, so that a reused connection is rarely closed under us
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos( 15 );
+    //
+    private final EventLoop eventLoop;
+    private final Map<String, Deque<Idle>> idle = new HashMap<>();
+    private boolean evicting;
+    private final Runnable evict = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            evicting = false;
+            evict();
+        }
+    };
+
+    @RequiredArgsConstructor
+    private static class Idle
+    {
+
+        private final Channel channel;
+        private final long since = System.nanoTime();
+
+        private boolean isExpired(long now)
+        {
+            return !channel.isActive() || now - since >= IDLE_TIMEOUT;
+        }
+    }
+
+    /**
+     * Gets the pool of an event loop. It must only be used from within that
+     * event loop.
+     *
+     * @param eventLoop the event loop
+     * @return the pool of connections for the event loop
+     */
+    static ConnectionPool get(final EventLoop eventLoop)
+    {
+        ConnectionPool pool = POOLS.get( eventLoop );
+        if ( pool == null )
+        {
+            final ConnectionPool created = new ConnectionPool( eventLoop );
+            pool = POOLS.putIfAbsent( eventLoop, created );
+            if ( pool == null )
+            {
+                pool = created;
+                eventLoop.terminationFuture().addListener( new FutureListener<Object>()
+                {
+                    @Override
+                    public void operationComplete(Future<Object> future) throws Exception
+                    {
+                        POOLS.remove( eventLoop, created );
+                    }
+                } );
+            }
+        }
+
+        return pool;
+    }
+
+    /**
+     * Takes an idle connection out of the pool, ready for another request.
+     *
+     * @param key the scheme, host and port of the connection
+     * @return the connection, or null if there is none
+     */
+    Channel poll(String key)
+    {
+        Deque<Idle> connections = idle.get( key );
+        if ( connections == null )
+        {
+            return null;
+        }
+
+        Idle connection;
+        while ( ( connection = connections.pollFirst() ) != null )
+        {
+            if ( !connection.isExpired( System.nanoTime() ) )
+            {
+                connection.channel.pipeline().addFirst( "timeout", new ReadTimeoutHandler( HttpClient.TIMEOUT, TimeUnit.MILLISECONDS ) );
+                return connection.channel;
+            }
+            connection.channel.close();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a connection whose response has been read in full to the pool,
+     * or closes it if the pool is full.
+     *
+     * @param key the scheme, host and port of the connection
+     * @param channel the connection
+     */
+    void release(String key, Channel channel)
+    {
+        Deque<Idle> connections = idle.get( key );
+        if ( connections == null )
+        {
+            idle.put( key, connections = new ArrayDeque<>() );
+        }
+
+        if ( !channel.isActive() || connections.size() >= MAX_IDLE )
+        {
+            channel.close();
+            return;
+        }
+
+        // Idle connections have nothing to time out on
+        channel.pipeline().remove( "timeout" );
+        connections.addFirst( new Idle( channel ) );
+        scheduleEviction();
+    }
+
+    private void scheduleEviction()
+    {
+        if ( !evicting )
+        {
+            evicting = true;
+            eventLoop.schedule( evict, IDLE_TIMEOUT, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    // Closes the connections which have been idle too long, rather than
+    // leaving them open until the next request to their host
+    private void evict()
+    {
+        long now = System.nanoTime();
+        for ( Iterator<Deque<Idle>> it = idle.values().iterator(); it.hasNext(); )
+        {
+            Deque<Idle> connections = it.next();
+            // Most recently used first, so the expired ones are at the end
+            while ( !connections.isEmpty() && connections.peekLast().isExpired( now ) )
+            {
+                connections.pollLast().channel.close();
+            }
+            if ( connections.isEmpty() )
+            {
+                it.remove();
+            }
+        }
+
+        if ( !idle.isEmpty() )
+        {
+            scheduleEviction();
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package net.md_5.bungee.http;
 
 import com.google.common.base.Preconditions;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoop;
-import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
@@ -16,9 +21,15 @@ import io.netty.handler.codec.http.HttpVersion;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.api.Callback;
 import net.md_5.bungee.netty.PipelineUtils;
 
@@ -27,10 +38,29 @@ public class HttpClient
 {
 
     public static final int TIMEOUT = 5000;
-    private static final Cache<String, InetAddress> addressCache = CacheBuilder.newBuilder().expireAfterWrite( 1, TimeUnit.MINUTES ).build();
+    private static final long ADDRESS_TTL = TimeUnit.MINUTES.toNanos( 1 );
+    private static final ConcurrentMap<String, Lookup> addressCache = new ConcurrentHashMap<>();
+    private static final Executor resolver = Executors.newCachedThreadPool( new ThreadFactoryBuilder().setNameFormat( "HTTP Resolver #%1$d" ).setDaemon( true ).build() );
 
-    @SuppressWarnings("UnusedAssignment")
-    public static void get(String url, EventLoop eventLoop, final Callback<String> callback)
+    @RequiredArgsConstructor
+    private static class Lookup
+    {
+
+        private final ListenableFuture<InetAddress> address;
+        private final long created = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+    }
+
+    /**
+     * Sends a GET request, reusing an idle connection to the same host if
+     * there is one.
+     *
+     * @param url the URL to request
+     * @param eventLoop the event loop to make the request on
+     * @param callback the callback to pass the response body to, which is
+     * run on the event loop
+     */
+    public static void get(String url, final EventLoop eventLoop, final Callback<String> callback)
     {
         Preconditions.checkNotNull( url, "url" );
         Preconditions.checkNotNull( eventLoop, "eventLoop" );
@@ -40,59 +70,175 @@ public class HttpClient
 
         Preconditions.checkNotNull( uri.getScheme(), "scheme" );
         Preconditions.checkNotNull( uri.getHost(), "host" );
-        boolean ssl = uri.getScheme().equals( "https" );
-        int port = uri.getPort();
-        if ( port == -1 )
+        final boolean ssl = uri.getScheme().equals( "https" );
+        final int port = ( uri.getPort() != -1 ) ? uri.getPort() : getDefaultPort( uri.getScheme() );
+
+        final String key = uri.getScheme() + "://" + uri.getHost() + ":" + port;
+        if ( eventLoop.inEventLoop() )
+        {
+            request( uri, key, ssl, port, eventLoop, callback );
+        } else
         {
-            switch ( uri.getScheme() )
+            eventLoop.execute( new Runnable()
             {
-                case "http":
-                    port = 80;
-                    break;
-                case "https":
-                    port = 443;
-                    break;
-                default:
-                    throw new IllegalArgumentException( "Unknown scheme " + uri.getScheme() );
-            }
+                @Override
+                public void run()
+                {
+                    request( uri, key, ssl, port, eventLoop, callback );
+                }
+            } );
         }
+    }
 
-        InetAddress inetHost = addressCache.getIfPresent( uri.getHost() );
-        if ( inetHost == null )
+    private static int getDefaultPort(String scheme)
+    {
+        switch ( scheme )
         {
-            try
-            {
-                inetHost = InetAddress.getByName( uri.getHost() );
-            } catch ( UnknownHostException ex )
+            case "http":
+                return 80;
+            case "https":
+                return 443;
+            default:
+                throw new IllegalArgumentException( "Unknown scheme " + scheme );
+        }
+    }
+
+    private static void request(final URI uri, final String key, final boolean ssl, final int port, final EventLoop eventLoop, final Callback<String> callback)
+    {
+        Channel pooled = ConnectionPool.get( eventLoop ).poll( key );
+        if ( pooled != null )
+        {
+            // The server may have closed it just as it was reused, in which case a new one is needed
+            send( pooled, uri, callback, new Runnable()
             {
-                callback.done( null, ex );
-                return;
-            }
-            addressCache.put( uri.getHost(), inetHost );
+                @Override
+                public void run()
+                {
+                    connect( uri, key, ssl, port, eventLoop, callback );
+                }
+            } );
+        } else
+        {
+            connect( uri, key, ssl, port, eventLoop, callback );
         }
+    }
 
-        ChannelFutureListener future = new ChannelFutureListener()
+    private static void connect(final URI uri, final String key, final boolean ssl, final int port, final EventLoop eventLoop, final Callback<String> callback)
+    {
+        resolve( uri.getHost(), eventLoop, new Callback<InetAddress>()
         {
             @Override
-            public void operationComplete(ChannelFuture future) throws Exception
+            public void done(InetAddress inetHost, Throwable error)
             {
-                if ( future.isSuccess() )
+                if ( error != null )
+                {
+                    callback.done( null, error );
+                    return;
+                }
+
+                ChannelFutureListener future = new ChannelFutureListener()
                 {
-                    String path = uri.getRawPath() + ( ( uri.getRawQuery() == null ) ? "" : "?" + uri.getRawQuery() );
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception
+                    {
+                        if ( future.isSuccess() )
+                        {
+                            send( future.channel(), uri, callback, null );
+                        } else
+                        {
+                            addressCache.remove( uri.getHost() );
+                            callback.done( null, future.cause() );
+                        }
+                    }
+                };
+
+                new Bootstrap().channel( PipelineUtils.getChannel( null ) ).group( eventLoop ).handler( new HttpInitializer( key, ssl, uri.getHost(), port ) ).
+                        option( ChannelOption.CONNECT_TIMEOUT_MILLIS, TIMEOUT ).remoteAddress( inetHost, port ).connect().addListener( future );
+            }
+        } );
+    }
+
+    private static void send(Channel channel, URI uri, Callback<String> callback, Runnable retry)
+    {
+        String path = uri.getRawPath() + ( ( uri.getRawQuery() == null ) ? "" : "?" + uri.getRawQuery() );
+
+        // A full request, as the encoder expects the end of the last one before starting another
+        HttpRequest request = new DefaultFullHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.GET, path );
+        request.headers().set( HttpHeaderNames.HOST, uri.getHost() );
 
-                    HttpRequest request = new DefaultHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.GET, path );
-                    request.headers().set( HttpHeaderNames.HOST, uri.getHost() );
+        ChannelHandlerContext ctx = channel.pipeline().context( HttpHandler.class );
+        ( (HttpHandler) ctx.handler() ).request( ctx, request, callback, retry );
+    }
 
-                    future.channel().writeAndFlush( request );
-                } else
+    /**
+     * Resolves a host without blocking the event loop. Addresses are cached
+     * for a while, after which they are looked up again in the background
+     * while the old address keeps being used.
+     *
+     * @param host the host to resolve
+     * @param eventLoop the event loop to run the callback on
+     * @param callback the callback to pass the address to
+     */
+    private static void resolve(final String host, EventLoop eventLoop, final Callback<InetAddress> callback)
+    {
+        Lookup lookup = addressCache.get( host );
+        if ( lookup == null )
+        {
+            final SettableFuture<InetAddress> address = SettableFuture.create();
+            final Lookup created = new Lookup( address );
+            lookup = addressCache.putIfAbsent( host, created );
+            if ( lookup == null )
+            {
+                lookup = created;
+                resolver.execute( new Runnable()
                 {
-                    addressCache.invalidate( uri.getHost() );
-                    callback.done( null, future.cause() );
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            address.set( InetAddress.getByName( host ) );
+                        } catch ( Throwable t )
+                        {
+                            addressCache.remove( host, created );
+                            address.setException( t );
+                        }
+                    }
+                } );
+            }
+        } else if ( lookup.address.isDone() && System.nanoTime() - lookup.created > ADDRESS_TTL && lookup.refreshing.compareAndSet( false, true ) )
+        {
+            final Lookup stale = lookup;
+            resolver.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        addressCache.replace( host, stale, new Lookup( Futures.immediateFuture( InetAddress.getByName( host ) ) ) );
+                    } catch ( UnknownHostException ex )
+                    {
+                        // Keep the old address, and try again next time
+                        stale.refreshing.set( false );
+                    }
                 }
+            } );
+        }
+
+        Futures.addCallback( lookup.address, new FutureCallback<InetAddress>()
+        {
+            @Override
+            public void onSuccess(InetAddress result)
+            {
+                callback.done( result, null );
             }
-        };
 
-        new Bootstrap().channel( PipelineUtils.getChannel( null ) ).group( eventLoop ).handler( new HttpInitializer( callback, ssl, uri.getHost(), port ) ).
-                option( ChannelOption.CONNECT_TIMEOUT_MILLIS, TIMEOUT ).remoteAddress( inetHost, port ).connect().addListener( future );
+            @Override
+            public void onFailure(Throwable t)
+            {
+                callback.done( null, t );
+            }
+        }, eventLoop );
     }
 }
@@ -1,50 +1,87 @@
 package net.md_5.bungee.http;
 
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.LastHttpContent;
+import java.nio.channels.ClosedChannelException;
 import java.nio.charset.Charset;
 import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.api.Callback;
 
+/**
+ * Reads the responses of a connection, which goes back to its
+ * {@link ConnectionPool} for further requests once a response has been read
+ * in full.
+ */
 @RequiredArgsConstructor
 public class HttpHandler extends SimpleChannelInboundHandler<HttpObject>
 {
 
-    private final Callback<String> callback;
+    private final String key;
     private final StringBuilder buffer = new StringBuilder();
+    private Callback<String> callback;
+    private Runnable retry;
+    private boolean responded;
+    private boolean keepAlive;
+
+    /**
+     * Sends a request, whose response is passed to the callback.
+     *
+     * @param ctx the context of this handler
+     * @param request the request
+     * @param callback the callback to pass the response to
+     * @param retry what to do instead of failing if the connection is lost
+     * before any response, or null to fail
+     */
+    void request(ChannelHandlerContext ctx, HttpRequest request, Callback<String> callback, Runnable retry)
+    {
+        this.callback = callback;
+        this.retry = retry;
+        responded = false;
+        keepAlive = false;
+        buffer.setLength( 0 );
+
+        ctx.writeAndFlush( request ).addListener( ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE );
+    }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception
     {
-        try
-        {
-            callback.done( null, cause );
-        } finally
-        {
-            ctx.channel().close();
-        }
+        fail( ctx, cause );
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception
+    {
+        fail( ctx, new ClosedChannelException() );
+        super.channelInactive( ctx );
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception
     {
+        if ( callback == null )
+        {
+            // Nothing was requested, or the request already failed
+            ctx.channel().close();
+            return;
+        }
+
         if ( msg instanceof HttpResponse )
         {
             HttpResponse response = (HttpResponse) msg;
             int responseCode = response.status().code();
+            responded = true;
+            keepAlive = HttpUtil.isKeepAlive( response );
 
-            if ( responseCode == HttpResponseStatus.NO_CONTENT.code() )
-            {
-                done( ctx );
-                return;
-            }
-
-            if ( responseCode != HttpResponseStatus.OK.code() )
+            if ( responseCode != HttpResponseStatus.OK.code() && responseCode != HttpResponseStatus.NO_CONTENT.code() )
             {
                 throw new IllegalStateException( "Expected HTTP response 200 OK, got " + response.status() );
             }
@@ -63,9 +100,40 @@ public class HttpHandler extends SimpleChannelInboundHandler<HttpObject>
 
     private void done(ChannelHandlerContext ctx)
     {
+        Callback<String> callback = this.callback;
+        this.callback = null;
+        retry = null;
+
+        if ( keepAlive )
+        {
+            ConnectionPool.get( ctx.channel().eventLoop() ).release( key, ctx.channel() );
+        } else
+        {
+            ctx.channel().close();
+        }
+
+        callback.done( buffer.toString(), null );
+    }
+
+    private void fail(ChannelHandlerContext ctx, Throwable cause)
+    {
+        Callback<String> callback = this.callback;
+        Runnable retry = this.retry;
+        this.callback = null;
+        this.retry = null;
+
         try
         {
-            callback.done( buffer.toString(), null );
+            if ( callback != null )
+            {
+                if ( retry != null && !responded )
+                {
+                    retry.run();
+                } else
+                {
+                    callback.done( null, cause );
+                }
+            }
         } finally
         {
             ctx.channel().close();
@@ -3,34 +3,53 @@ package net.md_5.bungee.http;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
 import lombok.RequiredArgsConstructor;
-import net.md_5.bungee.api.Callback;
 
 @RequiredArgsConstructor
 public class HttpInitializer extends ChannelInitializer<Channel>
 {
 
-    private final Callback<String> callback;
+    private final String key;
     private final boolean ssl;
     private final String host;
     private final int port;
 
+    // Shared so that its session cache lets new connections resume the TLS sessions of earlier ones
+    private static class Holder
+    {
+
+        private static final SslContext SSL_CONTEXT;
+
+        static
+        {
+            try
+            {
+                SSL_CONTEXT = SslContextBuilder.forClient().build();
+            } catch ( SSLException ex )
+            {
+                throw new ExceptionInInitializerError( ex );
+            }
+        }
+    }
+
     @Override
     protected void initChannel(Channel ch) throws Exception
     {
         ch.pipeline().addLast( "timeout", new ReadTimeoutHandler( HttpClient.TIMEOUT, TimeUnit.MILLISECONDS ) );
         if ( ssl )
         {
-            SSLEngine engine = SslContextBuilder.forClient().build().newEngine( ch.alloc(), host, port );
+            SSLEngine engine = Holder.SSL_CONTEXT.newEngine( ch.alloc(), host, port );
 
             ch.pipeline().addLast( "ssl", new SslHandler( engine ) );
         }
         ch.pipeline().addLast( "http", new HttpClientCodec() );
-        ch.pipeline().addLast( "handler", new HttpHandler( callback ) );
+        ch.pipeline().addLast( "handler", new HttpHandler( key ) );
     }
 }
@@ -1,16 +1,21 @@
 package net.md_5.bungee.netty;
 
 import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundInvoker;
 import java.net.SocketAddress;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 import lombok.Getter;
 import lombok.Setter;
 import net.md_5.bungee.compress.PacketCompressor;
 import net.md_5.bungee.compress.PacketDecompressor;
+import net.md_5.bungee.protocol.DefinedPacket;
 import net.md_5.bungee.protocol.MinecraftDecoder;
 import net.md_5.bungee.protocol.MinecraftEncoder;
 import net.md_5.bungee.protocol.PacketWrapper;
@@ -21,6 +26,7 @@ public class ChannelWrapper
 {
 
     private final Channel ch;
+    private PacketDecompressor decompressor;
     @Getter
     @Setter
     private SocketAddress remoteAddress;
@@ -47,18 +53,157 @@ public class ChannelWrapper
         ch.pipeline().get( MinecraftEncoder.class ).setProtocolVersion( protocol );
     }
 
+    /**
+     * Gets the protocol packets written to this channel are encoded with.
+     *
+     * @return the protocol, or null if there is no encoder
+     */
+    public Protocol getEncodeProtocol()
+    {
+        MinecraftEncoder encoder = ch.pipeline().get( MinecraftEncoder.class );
+        return ( encoder != null ) ? encoder.getProtocol() : null;
+    }
+
+    public void setHandledPackets(Set<Class<? extends DefinedPacket>> handledPackets)
+    {
+        MinecraftDecoder decoder = ch.pipeline().get( MinecraftDecoder.class );
+        if ( decoder != null )
+        {
+            decoder.setHandledPackets( handledPackets );
+        }
+    }
+
     public void write(Object packet)
     {
         if ( !closed )
         {
+            Object msg = packet;
             if ( packet instanceof PacketWrapper )
             {
                 ( (PacketWrapper) packet ).setReleased( true );
-                ch.writeAndFlush( ( (PacketWrapper) packet ).buf, ch.voidPromise() );
-            } else
+                msg = ( (PacketWrapper) packet ).buf;
+            } else if ( packet instanceof DefinedPacket )
             {
-                ch.writeAndFlush( packet, ch.voidPromise() );
+                // May still be encoded on another event loop once the frame it came from has been handled
+                ( (DefinedPacket) packet ).detachFromPool();
             }
+
+            write( ch, msg, true );
+        }
+    }
+
+    private void write(ChannelOutboundInvoker target, Object msg, boolean flush)
+    {
+        if ( !flush )
+        {
+            // Flushed along with whatever is written next
+            target.write( msg, ch.voidPromise() );
+        } else if ( !WriteBatch.write( this, target, msg ) )
+        {
+            target.writeAndFlush( msg, ch.voidPromise() );
+        }
+    }
+
+    private void writePastEncoders(final Object frame, final boolean flush)
+    {
+        ChannelHandlerContext ctx = ch.pipeline().context( PacketCompressor.class );
+        if ( ctx == null )
+        {
+            write( pastEncoders( ch.pipeline().context( MinecraftEncoder.class ) ), frame, flush );
+            return;
+        }
+
+        PacketCompressor compressor = (PacketCompressor) ctx.handler();
+        if ( compressor.getOffloadSize() != -1 )
+        {
+            if ( !ch.eventLoop().inEventLoop() )
+            {
+                ch.eventLoop().execute( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        writePastEncoders( frame, flush );
+                    }
+                } );
+                return;
+            }
+
+            if ( compressor.isOffloading() )
+            {
+                // Keep it behind the packets still being compressed
+                compressor.writeFrame( frame );
+                return;
+            }
+        }
+
+        write( pastEncoders( ctx ), frame, flush );
+    }
+
+    // Past the frame prepender too, which would otherwise prefix the frame
+    // again, as it may be written from outside the event loop
+    private ChannelHandlerContext pastEncoders(ChannelHandlerContext encoder)
+    {
+        ChannelHandlerContext prepender = ch.pipeline().context( PipelineUtils.FRAME_PREPENDER );
+        return ( prepender != null ) ? prepender : encoder;
+    }
+
+    /**
+     * Writes a frame which has already been encoded, and compressed according
+     * to {@link #getCompressionThreshold()}, straight past the packet encoders.
+     *
+     * @param frame the frame to write, ownership of which passes to the channel
+     */
+    public void writeFrame(ByteBuf frame)
+    {
+        if ( !closed )
+        {
+            writePastEncoders( frame, true );
+        } else
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Forwards a compressed frame as read from another channel with the same
+     * compression threshold, without decompressing it again.
+     *
+     * @param frame the frame, without its length, ownership of which passes to
+     * the channel
+     * @see #getCompressedFrame()
+     */
+    public void writeCompressedFrame(ByteBuf frame)
+    {
+        if ( !closed )
+        {
+            ByteBuf header = ch.alloc().ioBuffer( DefinedPacket.MAX_FRAME_HEADER_SIZE );
+            DefinedPacket.writeVarInt( frame.readableBytes(), header );
+
+            writePastEncoders( header, false );
+            writePastEncoders( frame, true );
+        } else
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Gets the compressed frame of the packet currently being handled, if
+     * {@link #setKeepCompressedFrames(boolean)} is enabled.
+     *
+     * @return the frame, valid until the packet handler returns, or null
+     */
+    public ByteBuf getCompressedFrame()
+    {
+        return ( decompressor != null ) ? decompressor.getFrame() : null;
+    }
+
+    public void setKeepCompressedFrames(boolean keepCompressedFrames)
+    {
+        if ( decompressor != null )
+        {
+            decompressor.setKeepFrames( keepCompressedFrames );
         }
     }
 
@@ -122,6 +267,24 @@ public class ChannelWrapper
         return ch;
     }
 
+    public int getCompressionThreshold()
+    {
+        PacketCompressor compressor = ch.pipeline().get( PacketCompressor.class );
+        return ( compressor != null ) ? compressor.getThreshold() : -1;
+    }
+
+    /**
+     * Gets the level packets written to this channel are compressed at.
+     *
+     * @return the compression level, which is only meaningful while
+     * {@link #getCompressionThreshold()} is not -1
+     */
+    public int getCompressionLevel()
+    {
+        PacketCompressor compressor = ch.pipeline().get( PacketCompressor.class );
+        return ( compressor != null ) ? compressor.getLevel() : Deflater.DEFAULT_COMPRESSION;
+    }
+
     public void setCompressionThreshold(int compressionThreshold)
     {
         if ( ch.pipeline().get( PacketCompressor.class ) == null && compressionThreshold != -1 )
@@ -135,14 +298,16 @@ public class ChannelWrapper
         {
             ch.pipeline().remove( "compress" );
         }
+        ch.pipeline().get( MinecraftEncoder.class ).setFraming( compressionThreshold == -1 );
 
-        if ( ch.pipeline().get( PacketDecompressor.class ) == null && compressionThreshold != -1 )
+        if ( decompressor == null && compressionThreshold != -1 )
         {
-            addBefore( PipelineUtils.PACKET_DECODER, "decompress", new PacketDecompressor() );
+            addBefore( PipelineUtils.PACKET_DECODER, "decompress", decompressor = new PacketDecompressor() );
         }
         if ( compressionThreshold == -1 )
         {
             ch.pipeline().remove( "decompress" );
+            decompressor = null;
         }
     }
 }
@@ -34,6 +34,11 @@ public class HandlerBoss extends ChannelInboundHandlerAdapter
     {
         Preconditions.checkArgument( handler != null, "handler" );
         this.handler = handler;
+
+        if ( channel != null )
+        {
+            channel.setHandledPackets( handler.getHandledPackets() );
+        }
     }
 
     @Override
@@ -42,6 +47,7 @@ public class HandlerBoss extends ChannelInboundHandlerAdapter
         if ( handler != null )
         {
             channel = new ChannelWrapper( ctx );
+            channel.setHandledPackets( handler.getHandledPackets() );
             handler.connected( channel );
 
             if ( !( handler instanceof InitialHandler || handler instanceof PingHandler ) )
@@ -94,6 +100,8 @@ public class HandlerBoss extends ChannelInboundHandlerAdapter
 
         if ( handler != null )
         {
+            WriteBatch.begin( ctx.channel().eventLoop() );
+
             PacketWrapper packet = (PacketWrapper) msg;
             boolean sendPacket = handler.shouldHandle( packet );
             try
@@ -119,6 +127,13 @@ public class HandlerBoss extends ChannelInboundHandlerAdapter
         }
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception
+    {
+        WriteBatch.end();
+        super.channelReadComplete( ctx );
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception
     {
@@ -0,0 +1,191 @@
+package net.md_5.bungee.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import net.md_5.bungee.UserConnection;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.compress.CompressFactory;
+import net.md_5.bungee.compress.PacketCompressor;
+import net.md_5.bungee.compress.ZlibPool;
+import net.md_5.bungee.jni.zlib.BungeeZlib;
+import net.md_5.bungee.protocol.DefinedPacket;
+import net.md_5.bungee.protocol.MinecraftEncoder;
+import net.md_5.bungee.protocol.Protocol;
+
+/**
+ * Sends the same packet to many players by encoding it once for every
+ * distinct protocol version, compression threshold and level amongst them, then
+ * writing a retained duplicate of that shared frame to each of their channels.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class PacketBroadcaster
+{
+
+    // Broadcasts come from any thread, so deflaters are shared rather than kept per thread, by level
+    private static final List<BlockingQueue<BungeeZlib>> deflaters = new ArrayList<>();
+
+    static
+    {
+        for ( int level = 0; level <= Deflater.BEST_COMPRESSION; level++ )
+        {
+            deflaters.add( new ArrayBlockingQueue<BungeeZlib>( Runtime.getRuntime().availableProcessors() ) );
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Group
+    {
+
+        private final UserConnection first;
+        private final int version;
+        private final int compressionThreshold;
+        private final int compressionLevel;
+        private final List<ChannelWrapper> channels = new ArrayList<>();
+    }
+
+    /**
+     * Broadcasts a packet to all given players.
+     *
+     * @param players the recipients
+     * @param packet the packet to send
+     */
+    public static void broadcast(Iterable<UserConnection> players, final DefinedPacket packet)
+    {
+        broadcast( players, new Function<UserConnection, DefinedPacket>()
+        {
+            @Override
+            public DefinedPacket apply(UserConnection player)
+            {
+                return packet;
+            }
+        } );
+    }
+
+    /**
+     * Broadcasts a packet to all given players. The packet may depend on the
+     * protocol version of the player, so is created once per version group
+     * using the first player in that group.
+     *
+     * @param players the recipients
+     * @param packet creates the packet to send to the given player's group
+     */
+    public static void broadcast(Iterable<UserConnection> players, Function<UserConnection, DefinedPacket> packet)
+    {
+        Map<Long, Group> groups = new HashMap<>();
+        for ( UserConnection player : players )
+        {
+            ChannelWrapper ch = player.getCh();
+            // Players still logging in cannot be sent game packets
+            if ( ch.isClosing() || ch.getEncodeProtocol() != Protocol.GAME )
+            {
+                continue;
+            }
+
+            int version = player.getPendingConnection().getVersion();
+            int compressionThreshold = ch.getCompressionThreshold();
+            int compressionLevel = ( compressionThreshold == -1 ) ? 0 : ch.getCompressionLevel();
+            if ( compressionLevel == Deflater.DEFAULT_COMPRESSION )
+            {
+                compressionLevel = ZlibPool.DEFAULT_LEVEL;
+            }
+            // Versions fit in 28 bits and levels in 4
+            long key = ( (long) version << 36 ) | ( (long) compressionLevel << 32 ) | ( compressionThreshold & 0xFFFFFFFFL );
+            Group group = groups.get( key );
+            if ( group == null )
+            {
+                groups.put( key, group = new Group( player, version, compressionThreshold, compressionLevel ) );
+            }
+            group.channels.add( ch );
+        }
+
+        for ( Group group : groups.values() )
+        {
+            BungeeZlib zlib = ( group.compressionThreshold != -1 ) ? borrowDeflater( group.compressionLevel ) : null;
+            ByteBuf frame;
+            try
+            {
+                frame = encode( zlib, group, packet.apply( group.first ) );
+            } catch ( DataFormatException | RuntimeException ex )
+            {
+                // Only this group misses out, rather than every group after it
+                ProxyServer.getInstance().getLogger().log( Level.WARNING, "Could not encode broadcast packet for protocol version " + group.version, ex );
+                if ( zlib != null )
+                {
+                    // Failed part way, so the stream may not have been reset
+                    zlib.free();
+                }
+                continue;
+            }
+
+            if ( zlib != null && !deflaters.get( group.compressionLevel ).offer( zlib ) )
+            {
+                zlib.free();
+            }
+
+            try
+            {
+                for ( ChannelWrapper ch : group.channels )
+                {
+                    ch.writeFrame( frame.retainedDuplicate() );
+                }
+            } finally
+            {
+                frame.release();
+            }
+        }
+    }
+
+    private static BungeeZlib borrowDeflater(int level)
+    {
+        BungeeZlib zlib = deflaters.get( level ).poll();
+        if ( zlib == null )
+        {
+            zlib = CompressFactory.zlib.newInstance();
+            zlib.init( true, level );
+        }
+        return zlib;
+    }
+
+    private static ByteBuf encode(BungeeZlib zlib, Group group, DefinedPacket packet) throws DataFormatException
+    {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer();
+        try
+        {
+            int headerIndex = ( group.compressionThreshold == -1 ) ? DefinedPacket.reserveFrameHeader( buf ) : -1;
+            MinecraftEncoder.writePacket( Protocol.GAME, true, group.version, packet, buf );
+
+            if ( group.compressionThreshold == -1 )
+            {
+                DefinedPacket.writeFrameHeader( buf, headerIndex );
+                return buf.retain();
+            }
+
+            ByteBuf frame = PooledByteBufAllocator.DEFAULT.directBuffer();
+            try
+            {
+                PacketCompressor.compress( zlib, group.compressionThreshold, buf, frame );
+            } catch ( DataFormatException | RuntimeException ex )
+            {
+                frame.release();
+                throw ex;
+            }
+            return frame;
+        } finally
+        {
+            buf.release();
+        }
+    }
+}
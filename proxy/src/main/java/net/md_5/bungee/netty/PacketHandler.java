@@ -1,5 +1,7 @@
 package net.md_5.bungee.netty;
 
+import java.util.Set;
+import net.md_5.bungee.protocol.DefinedPacket;
 import net.md_5.bungee.protocol.PacketWrapper;
 
 public abstract class PacketHandler extends net.md_5.bungee.protocol.AbstractPacketHandler
@@ -8,6 +10,18 @@ public abstract class PacketHandler extends net.md_5.bungee.protocol.AbstractPac
     @Override
     public abstract String toString();
 
+    /**
+     * Gets the packets this handler has handle methods for. All other packets
+     * are not deserialized and are only passed to
+     * {@link #handle(PacketWrapper)}.
+     *
+     * @return the handled packets, or null to deserialize every packet
+     */
+    public Set<Class<? extends DefinedPacket>> getHandledPackets()
+    {
+        return null;
+    }
+
     public boolean shouldHandle(PacketWrapper packet) throws Exception
     {
         return true;
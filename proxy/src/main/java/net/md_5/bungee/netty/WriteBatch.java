@@ -0,0 +1,143 @@
+package net.md_5.bungee.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelOutboundInvoker;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.FastThreadLocal;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import net.md_5.bungee.BungeeCord;
+import net.md_5.bungee.conf.Configuration;
+
+/**
+ * Collects the channels written to while an event loop is handling a read, so
+ * that each is flushed once when the read completes rather than after every
+ * forwarded packet.
+ */
+final class WriteBatch
+{
+
+    private static final FastThreadLocal<WriteBatch> CURRENT = new FastThreadLocal<WriteBatch>()
+    {
+        @Override
+        protected WriteBatch initialValue() throws Exception
+        {
+            return new WriteBatch();
+        }
+    };
+
+    private static class Pending
+    {
+
+        private int packets;
+        private int bytes;
+    }
+    private final Map<ChannelWrapper, Pending> pending = new IdentityHashMap<>();
+    private final Runnable flushTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            // Runs once the event loop is done with its reads, so any still
+            // marked as in progress ended without channelReadComplete
+            reading = false;
+            flushScheduled = false;
+            flush();
+        }
+    };
+    private EventLoop eventLoop;
+    private boolean reading;
+    private boolean flushScheduled;
+
+    /**
+     * Starts batching writes made by the current thread, if enabled.
+     *
+     * @param eventLoop the event loop handling the read
+     */
+    static void begin(EventLoop eventLoop)
+    {
+        if ( BungeeCord.getInstance().config.isBatchWrites() )
+        {
+            WriteBatch batch = CURRENT.get();
+            batch.eventLoop = eventLoop;
+            batch.reading = true;
+        }
+    }
+
+    /**
+     * Flushes every channel written to since {@link #begin(EventLoop)}.
+     */
+    static void end()
+    {
+        if ( CURRENT.isSet() )
+        {
+            WriteBatch batch = CURRENT.get();
+            batch.reading = false;
+            batch.flush();
+        }
+    }
+
+    /**
+     * Writes a message without flushing if the current thread is batching.
+     *
+     * @param channel the channel to write to
+     * @param target where in the channel's pipeline to write the message
+     * @param msg the message to write
+     * @return false if the message was not written as no batch is in progress
+     */
+    static boolean write(ChannelWrapper channel, ChannelOutboundInvoker target, Object msg)
+    {
+        if ( !CURRENT.isSet() )
+        {
+            return false;
+        }
+        WriteBatch batch = CURRENT.get();
+        if ( !batch.reading )
+        {
+            return false;
+        }
+
+        Pending counts = batch.pending.get( channel );
+        if ( counts == null )
+        {
+            batch.pending.put( channel, counts = new Pending() );
+            if ( !batch.flushScheduled )
+            {
+                // In case the read completes without us being told
+                batch.flushScheduled = true;
+                batch.eventLoop.execute( batch.flushTask );
+            }
+        }
+
+        counts.packets++;
+        if ( msg instanceof ByteBuf )
+        {
+            counts.bytes += ( (ByteBuf) msg ).readableBytes();
+        }
+        target.write( msg, channel.getHandle().voidPromise() );
+
+        Configuration config = BungeeCord.getInstance().config;
+        if ( counts.packets >= config.getBatchMaxPackets() || counts.bytes >= config.getBatchMaxBytes() )
+        {
+            channel.getHandle().flush();
+            counts.packets = counts.bytes = 0;
+        }
+        return true;
+    }
+
+    private void flush()
+    {
+        if ( pending.isEmpty() )
+        {
+            return;
+        }
+        for ( Map.Entry<ChannelWrapper, Pending> entry : pending.entrySet() )
+        {
+            if ( entry.getValue().packets > 0 )
+            {
+                entry.getKey().getHandle().flush();
+            }
+        }
+        pending.clear();
+    }
+}
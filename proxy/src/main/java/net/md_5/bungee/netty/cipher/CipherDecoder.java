@@ -1,22 +1,62 @@
 package net.md_5.bungee.netty.cipher;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToMessageDecoder;
-import java.util.List;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.DecoderException;
 import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.jni.cipher.BungeeCipher;
 
 @RequiredArgsConstructor
-public class CipherDecoder extends MessageToMessageDecoder<ByteBuf>
+public class CipherDecoder extends ChannelInboundHandlerAdapter
 {
 
     private final BungeeCipher cipher;
 
+    /**
+     * Checks whether a buffer may be ciphered in place, as nothing else holds
+     * a reference to it or anything it shares memory with. Duplicates and
+     * slices, such as the frames handed to each recipient of a broadcast,
+     * count their references apart from the buffer whose memory they share,
+     * so they never are.
+     *
+     * @param buf the buffer
+     * @return whether it may be modified in place
+     */
+    static boolean isExclusive(ByteBuf buf)
+    {
+        return buf.unwrap() == null && !( buf instanceof CompositeByteBuf ) && buf.refCnt() == 1 && !buf.isReadOnly();
+    }
+
     @Override
-    protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
     {
-        out.add( cipher.cipher( ctx, msg ) );
+        if ( !( msg instanceof ByteBuf ) )
+        {
+            ctx.fireChannelRead( msg );
+            return;
+        }
+
+        ByteBuf in = (ByteBuf) msg;
+        ByteBuf out;
+        try
+        {
+            if ( isExclusive( in ) && cipher.cipherInPlace( in ) )
+            {
+                out = in;
+            } else
+            {
+                out = cipher.cipher( ctx, in );
+                in.release();
+            }
+        } catch ( Throwable t )
+        {
+            in.release();
+            throw new DecoderException( t );
+        }
+
+        ctx.fireChannelRead( out );
     }
 
     @Override
@@ -2,20 +2,51 @@ package net.md_5.bungee.netty.cipher;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
 import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.jni.cipher.BungeeCipher;
 
 @RequiredArgsConstructor
-public class CipherEncoder extends MessageToByteEncoder<ByteBuf>
+public class CipherEncoder extends ChannelOutboundHandlerAdapter
 {
 
     private final BungeeCipher cipher;
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
     {
-        cipher.cipher( in, out );
+        if ( !( msg instanceof ByteBuf ) )
+        {
+            ctx.write( msg, promise );
+            return;
+        }
+
+        ByteBuf in = (ByteBuf) msg;
+        ByteBuf out = null;
+        try
+        {
+            if ( CipherDecoder.isExclusive( in ) && cipher.cipherInPlace( in ) )
+            {
+                out = in;
+            } else
+            {
+                out = ctx.alloc().ioBuffer( in.readableBytes() ); // CFB8
+                cipher.cipher( in, out );
+                in.release();
+            }
+        } catch ( Throwable t )
+        {
+            if ( out != null && out != in )
+            {
+                out.release();
+            }
+            in.release();
+            throw new EncoderException( t );
+        }
+
+        ctx.write( out, promise );
     }
 
     @Override
@@ -127,6 +127,34 @@ public final class ChatComponentTransformer
         return components;
     }
 
+    /**
+     * Checks if any of the components, including their extra components, are
+     * score components and so must be transformed separately for each player.
+     *
+     * @param components the components to check
+     * @return true if a score component is present
+     */
+    public boolean hasScoreComponents(BaseComponent... components)
+    {
+        if ( components == null )
+        {
+            return false;
+        }
+
+        for ( BaseComponent component : components )
+        {
+            if ( component instanceof ScoreComponent )
+            {
+                return true;
+            }
+            if ( component != null && component.getExtra() != null && hasScoreComponents( component.getExtra().toArray( new BaseComponent[ component.getExtra().size() ] ) ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Transform a ScoreComponent by replacing the name and value with the
      * appropriate values.
@@ -0,0 +1,94 @@
+package net.md_5.bungee;
+
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.crypto.Cipher;
+import net.md_5.bungee.api.Callback;
+import net.md_5.bungee.protocol.packet.EncryptionRequest;
+import net.md_5.bungee.protocol.packet.EncryptionResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoginCryptoTest
+{
+
+    private final byte[] sharedSecret = new byte[]
+    {
+        1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16
+    };
+
+    @Test
+    public void testProcess() throws Throwable
+    {
+        EncryptionRequest request = EncryptionUtil.encryptRequest();
+        EncryptionResponse response = new EncryptionResponse( encrypt( sharedSecret ), encrypt( request.getVerifyToken() ) );
+
+        LoginCrypto.Result result = process( request, response );
+        Assert.assertArrayEquals( sharedSecret, result.getSharedKey().getEncoded() );
+
+        MessageDigest sha = MessageDigest.getInstance( "SHA-1" );
+        sha.update( request.getServerId().getBytes( StandardCharsets.ISO_8859_1 ) );
+        sha.update( sharedSecret );
+        sha.update( EncryptionUtil.keys.getPublic().getEncoded() );
+        Assert.assertEquals( new BigInteger( sha.digest() ).toString( 16 ), result.getServerHash() );
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrongVerifyToken() throws Throwable
+    {
+        EncryptionRequest request = EncryptionUtil.encryptRequest();
+        byte[] verifyToken = request.getVerifyToken().clone();
+        verifyToken[0]++;
+        EncryptionResponse response = new EncryptionResponse( encrypt( sharedSecret ), encrypt( verifyToken ) );
+
+        process( request, response );
+    }
+
+    private static byte[] encrypt(byte[] data) throws Exception
+    {
+        Cipher cipher = Cipher.getInstance( "RSA" );
+        cipher.init( Cipher.ENCRYPT_MODE, EncryptionUtil.keys.getPublic() );
+        return cipher.doFinal( data );
+    }
+
+    private static LoginCrypto.Result process(EncryptionRequest request, EncryptionResponse response) throws Throwable
+    {
+        final EventLoop loop = new DefaultEventLoop();
+        final AtomicReference<LoginCrypto.Result> result = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        try
+        {
+            LoginCrypto.process( response, request, loop, new Callback<LoginCrypto.Result>()
+            {
+                @Override
+                public void done(LoginCrypto.Result done, Throwable failure)
+                {
+                    if ( !loop.inEventLoop() )
+                    {
+                        failure = new AssertionError( "Not called on the event loop" );
+                    }
+                    result.set( done );
+                    error.set( failure );
+                    latch.countDown();
+                }
+            } );
+            Assert.assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+        } finally
+        {
+            loop.shutdownGracefully();
+        }
+
+        if ( error.get() != null )
+        {
+            throw error.get();
+        }
+        return result.get();
+    }
+}
@@ -0,0 +1,44 @@
+package net.md_5.bungee.compress;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveCompressionTest
+{
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos( 1 );
+
+    @Test
+    public void testSteps()
+    {
+        AdaptiveCompression adaptive = new AdaptiveCompression();
+        long now = System.nanoTime();
+        Assert.assertEquals( AdaptiveCompression.MAX_LEVEL, adaptive.getLevel() );
+
+        // Compressing the whole time, so lower the level and then raise the threshold
+        for ( int i = 0; i < 10; i++ )
+        {
+            adaptive.record( now, now += SECOND );
+        }
+        Assert.assertEquals( AdaptiveCompression.MIN_LEVEL, adaptive.getLevel() );
+        Assert.assertEquals( AdaptiveCompression.MIN_LEVEL + 1, adaptive.getLevel( true ) );
+        Assert.assertEquals( 256 << 4, adaptive.getThreshold( 256 ) );
+
+        // Idle, so undo the threshold first
+        for ( int i = 0; i < 4; i++ )
+        {
+            now += SECOND;
+            adaptive.record( now, now );
+        }
+        Assert.assertEquals( 256, adaptive.getThreshold( 256 ) );
+        Assert.assertEquals( AdaptiveCompression.MIN_LEVEL, adaptive.getLevel() );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            now += SECOND;
+            adaptive.record( now, now );
+        }
+        Assert.assertEquals( AdaptiveCompression.MAX_LEVEL, adaptive.getLevel() );
+    }
+}
@@ -0,0 +1,263 @@
+package net.md_5.bungee.compress;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledHeapByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.handler.codec.EncoderException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+import net.md_5.bungee.netty.ChannelWrapper;
+import net.md_5.bungee.protocol.DefinedPacket;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PacketCompressorTest
+{
+
+    private static final int OFFLOAD_SIZE = 1024;
+    //
+    private final BlockingQueue<ByteBuf> received = new LinkedBlockingQueue<>();
+    private DefaultEventLoopGroup group;
+    private Channel server;
+    private Channel client;
+    private PacketCompressor compressor;
+    private ChannelWrapper wrapper;
+
+    @Before
+    public void connect() throws Exception
+    {
+        // A real event loop, as offloaded packets come back from the workers' threads
+        group = new DefaultEventLoopGroup( 1 );
+        LocalAddress address = new LocalAddress( "compressor-test" );
+        server = new ServerBootstrap().group( group ).channel( LocalServerChannel.class ).childHandler( new ChannelInitializer<Channel>()
+        {
+            @Override
+            protected void initChannel(Channel ch) throws Exception
+            {
+                ch.pipeline().addLast( new ChannelInboundHandlerAdapter()
+                {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+                    {
+                        received.add( (ByteBuf) msg );
+                    }
+                } );
+            }
+        } ).bind( address ).sync().channel();
+
+        compressor = new PacketCompressor();
+        compressor.setThreshold( 256 );
+        compressor.setOffloadSize( OFFLOAD_SIZE );
+        client = new Bootstrap().group( group ).channel( LocalChannel.class ).handler( compressor ).connect( address ).sync().channel();
+        wrapper = new ChannelWrapper( client.pipeline().context( compressor ) );
+    }
+
+    @After
+    public void close() throws Exception
+    {
+        client.close().sync();
+        server.close().sync();
+        group.shutdownGracefully( 0, 1, TimeUnit.SECONDS ).sync();
+
+        ByteBuf buf;
+        while ( ( buf = received.poll() ) != null )
+        {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void testOrdering() throws Exception
+    {
+        final byte[] large = packet( OFFLOAD_SIZE * 4, 1 );
+        final byte[] small = packet( 16, 2 );
+        final byte[] inline = packet( 512, 3 );
+        final byte[] frame = packet( 8, 4 );
+        final byte[] compressedFrame = packet( 8, 5 );
+
+        Assert.assertTrue( inEventLoop( new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                client.writeAndFlush( Unpooled.wrappedBuffer( large ) );
+                boolean offloading = compressor.isOffloading();
+                client.writeAndFlush( Unpooled.wrappedBuffer( small ) );
+                client.writeAndFlush( Unpooled.wrappedBuffer( inline ) );
+                wrapper.writeFrame( Unpooled.wrappedBuffer( frame ) );
+                wrapper.writeCompressedFrame( Unpooled.wrappedBuffer( compressedFrame ) );
+                return offloading;
+            }
+        } ) );
+
+        Assert.assertArrayEquals( large, readPacket() );
+        Assert.assertArrayEquals( small, readPacket() );
+        Assert.assertArrayEquals( inline, readPacket() );
+        Assert.assertArrayEquals( frame, readBytes() );
+        Assert.assertEquals( compressedFrame.length, DefinedPacket.readVarInt( Unpooled.wrappedBuffer( readBytes() ) ) );
+        Assert.assertArrayEquals( compressedFrame, readBytes() );
+        Assert.assertFalse( compressor.isOffloading() );
+    }
+
+    @Test
+    public void testFlushWhileQueued() throws Exception
+    {
+        final byte[] large = packet( OFFLOAD_SIZE * 4, 1 );
+        final byte[] small = packet( 16, 2 );
+
+        inEventLoop( new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                client.write( Unpooled.wrappedBuffer( large ) );
+                client.write( Unpooled.wrappedBuffer( small ) );
+                Assert.assertTrue( compressor.isOffloading() );
+                // Arrives while both are still held back, so must be applied once they are written
+                client.flush();
+                return null;
+            }
+        } );
+
+        Assert.assertArrayEquals( large, readPacket() );
+        Assert.assertArrayEquals( small, readPacket() );
+    }
+
+    @Test
+    public void testFailure() throws Exception
+    {
+        final byte[] small = packet( 16, 2 );
+        final byte[] large = packet( OFFLOAD_SIZE * 4, 1 );
+        final ChannelPromise failed = client.newPromise();
+
+        inEventLoop( new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                client.write( new UnreadableByteBuf( OFFLOAD_SIZE * 4 ), failed );
+                client.writeAndFlush( Unpooled.wrappedBuffer( small ) );
+                return null;
+            }
+        } );
+
+        Assert.assertTrue( failed.await( 10, TimeUnit.SECONDS ) );
+        Assert.assertTrue( failed.cause() instanceof EncoderException );
+        // Only the failed packet is lost
+        Assert.assertArrayEquals( small, readPacket() );
+
+        // And the workers still compress afterwards
+        client.writeAndFlush( Unpooled.wrappedBuffer( large ) );
+        Assert.assertArrayEquals( large, readPacket() );
+    }
+
+    private <T> T inEventLoop(Callable<T> task) throws Exception
+    {
+        return client.eventLoop().submit( task ).get( 10, TimeUnit.SECONDS );
+    }
+
+    private ByteBuf take() throws Exception
+    {
+        ByteBuf buf = received.poll( 10, TimeUnit.SECONDS );
+        Assert.assertNotNull( "Nothing was written", buf );
+        return buf;
+    }
+
+    private byte[] readBytes() throws Exception
+    {
+        ByteBuf buf = take();
+        try
+        {
+            return ByteBufUtil.getBytes( buf );
+        } finally
+        {
+            buf.release();
+        }
+    }
+
+    // Reads a length prefixed frame and decompresses its packet
+    private byte[] readPacket() throws Exception
+    {
+        ByteBuf buf = take();
+        try
+        {
+            Assert.assertEquals( buf.readableBytes() - DefinedPacket.getVarIntSize( buf.readableBytes() ), DefinedPacket.readVarInt( buf ) );
+            int dataLength = DefinedPacket.readVarInt( buf );
+            if ( dataLength == 0 )
+            {
+                return ByteBufUtil.getBytes( buf );
+            }
+
+            Inflater inflater = new Inflater();
+            try
+            {
+                inflater.setInput( ByteBufUtil.getBytes( buf ) );
+                byte[] packet = new byte[ dataLength ];
+                Assert.assertEquals( dataLength, inflater.inflate( packet ) );
+                Assert.assertTrue( inflater.finished() );
+                return packet;
+            } finally
+            {
+                inflater.end();
+            }
+        } finally
+        {
+            buf.release();
+        }
+    }
+
+    private static byte[] packet(int length, int fill)
+    {
+        byte[] packet = new byte[ length ];
+        Arrays.fill( packet, (byte) fill );
+        return packet;
+    }
+
+    // Fails whenever the compressor tries to read it
+    private static final class UnreadableByteBuf extends UnpooledHeapByteBuf
+    {
+
+        private UnreadableByteBuf(int length)
+        {
+            super( ByteBufAllocator.DEFAULT, length, length );
+            writerIndex( length );
+        }
+
+        @Override
+        public ByteBuf getBytes(int index, byte[] dst, int dstIndex, int length)
+        {
+            throw new IllegalStateException( "Unreadable" );
+        }
+
+        @Override
+        public ByteBuf getBytes(int index, ByteBuf dst, int dstIndex, int length)
+        {
+            throw new IllegalStateException( "Unreadable" );
+        }
+
+        @Override
+        public long memoryAddress()
+        {
+            throw new IllegalStateException( "Unreadable" );
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package net.md_5.bungee.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.md_5.bungee.jni.zlib.BungeeZlib;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZlibPoolTest
+{
+
+    @Test
+    public void testShared() throws Exception
+    {
+        final EventLoop loop = new DefaultEventLoop();
+        loop.submit( new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                int contexts = ZlibPool.getContexts();
+                BungeeZlib first = ZlibPool.get( loop ).zlib( true );
+                BungeeZlib second = ZlibPool.get( loop ).zlib( true );
+                BungeeZlib inflater = ZlibPool.get( loop ).zlib( false );
+
+                for ( BungeeZlib deflater : new BungeeZlib[]
+                {
+                    first, second
+                } )
+                {
+                    ByteBuf compressed = Unpooled.directBuffer();
+                    ByteBuf decompressed = Unpooled.directBuffer();
+                    deflater.process( Unpooled.wrappedBuffer( new byte[ 4096 ] ), compressed );
+                    inflater.process( compressed, decompressed );
+                    Assert.assertEquals( Unpooled.wrappedBuffer( new byte[ 4096 ] ), decompressed );
+                }
+
+                // Only one deflater and inflater, despite two channels compressing
+                Assert.assertEquals( contexts + 2, ZlibPool.getContexts() );
+                return null;
+            }
+        } ).sync();
+
+        final int contexts = ZlibPool.getContexts();
+        final CountDownLatch freed = new CountDownLatch( 1 );
+        // Listeners are notified in order, so this runs after the pool is freed
+        loop.terminationFuture().addListener( new FutureListener<Object>()
+        {
+            @Override
+            public void operationComplete(Future<Object> future)
+            {
+                if ( ZlibPool.getContexts() == contexts - 2 )
+                {
+                    freed.countDown();
+                }
+            }
+        } );
+        loop.shutdownGracefully();
+        Assert.assertTrue( freed.await( 10, TimeUnit.SECONDS ) );
+    }
+}
@@ -0,0 +1,37 @@
+package net.md_5.bungee.connection;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+import net.md_5.bungee.protocol.DefinedPacket;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HandledPacketsTest
+{
+
+    private static Set<Class<?>> getHandleMethods(Class<?> handler)
+    {
+        Set<Class<?>> handled = new HashSet<>();
+        for ( Method method : handler.getDeclaredMethods() )
+        {
+            if ( method.getName().equals( "handle" ) && method.getParameterCount() == 1 && DefinedPacket.class.isAssignableFrom( method.getParameterTypes()[0] ) )
+            {
+                handled.add( method.getParameterTypes()[0] );
+            }
+        }
+        return handled;
+    }
+
+    @Test
+    public void testDownstreamBridge()
+    {
+        Assert.assertEquals( getHandleMethods( DownstreamBridge.class ), DownstreamBridge.HANDLED_PACKETS );
+    }
+
+    @Test
+    public void testUpstreamBridge()
+    {
+        Assert.assertEquals( getHandleMethods( UpstreamBridge.class ), UpstreamBridge.HANDLED_PACKETS );
+    }
+}
@@ -0,0 +1,151 @@
+package net.md_5.bungee.connection;
+
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoginQueueTest
+{
+
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final Runnable admit = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            admitted.incrementAndGet();
+        }
+    };
+
+    @Test
+    public void testDisabled()
+    {
+        LoginQueue queue = new LoginQueue( 0, 0 );
+        Assert.assertFalse( queue.isEnabled() );
+
+        EventLoop loop = new DefaultEventLoop();
+        try
+        {
+            for ( int i = 0; i < 100; i++ )
+            {
+                Assert.assertTrue( queue.enqueue( loop, admit ).isAdmitted() );
+            }
+            Assert.assertEquals( 100, admitted.get() );
+        } finally
+        {
+            loop.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void testConcurrency() throws Exception
+    {
+        LoginQueue queue = new LoginQueue( 0, 2 );
+        EventLoop loop = new DefaultEventLoop();
+        try
+        {
+            List<LoginQueue.Ticket> tickets = new ArrayList<>();
+            for ( int i = 0; i < 3; i++ )
+            {
+                tickets.add( queue.enqueue( loop, admit ) );
+            }
+            sync( loop );
+
+            Assert.assertEquals( 2, admitted.get() );
+            Assert.assertEquals( 1, queue.getQueueLength() );
+            Assert.assertFalse( tickets.get( 2 ).isAdmitted() );
+
+            queue.release( tickets.get( 0 ) );
+            queue.release( tickets.get( 0 ) );
+            sync( loop );
+
+            Assert.assertEquals( 3, admitted.get() );
+            Assert.assertEquals( 0, queue.getQueueLength() );
+            Assert.assertTrue( tickets.get( 2 ).isAdmitted() );
+
+            // Still full, as releasing twice counts once
+            queue.enqueue( loop, admit );
+            sync( loop );
+            Assert.assertEquals( 3, admitted.get() );
+            Assert.assertEquals( 1, queue.getQueueLength() );
+        } finally
+        {
+            loop.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void testRate() throws Exception
+    {
+        LoginQueue queue = new LoginQueue( 20, 0 );
+        EventLoop loop = new DefaultEventLoop();
+        try
+        {
+            for ( int i = 0; i < 30; i++ )
+            {
+                queue.enqueue( loop, admit );
+            }
+            sync( loop );
+
+            // A second's worth straight away, and the rest over the next half second
+            Assert.assertTrue( admitted.get() >= 20 && admitted.get() < 30 );
+            Assert.assertEquals( 30 - admitted.get(), queue.getQueueLength() );
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( 5 );
+            while ( admitted.get() < 30 && System.nanoTime() < deadline )
+            {
+                Thread.sleep( 10 );
+            }
+            Assert.assertEquals( 30, admitted.get() );
+            Assert.assertEquals( 0, queue.getQueueLength() );
+            Assert.assertTrue( queue.getAverageWait() > 0 );
+        } finally
+        {
+            loop.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void testRejected() throws Exception
+    {
+        LoginQueue queue = new LoginQueue( 0, 1 );
+        EventLoop loop = new DefaultEventLoop();
+        EventLoop closed = new DefaultEventLoop();
+        closed.shutdownGracefully( 0, 0, TimeUnit.SECONDS ).sync();
+        try
+        {
+            LoginQueue.Ticket first = queue.enqueue( loop, admit );
+            queue.enqueue( closed, admit );
+            sync( loop );
+            Assert.assertEquals( 1, admitted.get() );
+            Assert.assertEquals( 1, queue.getQueueLength() );
+
+            // The login on the closed loop cannot start, so gives up its place
+            queue.release( first );
+            Assert.assertEquals( 0, queue.getQueueLength() );
+
+            queue.enqueue( loop, admit );
+            sync( loop );
+            Assert.assertEquals( 2, admitted.get() );
+        } finally
+        {
+            loop.shutdownGracefully();
+        }
+    }
+
+    private static void sync(EventLoop loop) throws Exception
+    {
+        loop.submit( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        } ).sync();
+    }
+}
@@ -0,0 +1,197 @@
+package net.md_5.bungee.entitymap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.md_5.bungee.protocol.DefinedPacket;
+import net.md_5.bungee.protocol.PacketWrapper;
+import net.md_5.bungee.protocol.ProtocolConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EntityMapTest
+{
+
+    private static ByteBuf packet(int packetId, int... varInts)
+    {
+        ByteBuf buf = Unpooled.buffer();
+        DefinedPacket.writeVarInt( packetId, buf );
+        for ( int varInt : varInts )
+        {
+            DefinedPacket.writeVarInt( varInt, buf );
+        }
+        buf.writeLong( 0xCAFEBABEL );
+        return buf;
+    }
+
+    private static void rewriteAndCompare(ByteBuf buf, ByteBuf expected, int oldId, int newId)
+    {
+        PacketWrapper wrapper = new PacketWrapper( null, buf );
+        EntityMap.getEntityMap( ProtocolConstants.MINECRAFT_1_16 ).rewriteClientbound( wrapper, oldId, newId, ProtocolConstants.MINECRAFT_1_16 );
+
+        Assert.assertEquals( expected, wrapper.buf );
+        Assert.assertEquals( 0, wrapper.buf.readerIndex() );
+        wrapper.buf.release();
+    }
+
+    @Test
+    public void testSameWidth()
+    {
+        rewriteAndCompare( packet( 0x28, 5 ), packet( 0x28, 7 ), 5, 7 );
+        rewriteAndCompare( packet( 0x28, 7 ), packet( 0x28, 5 ), 5, 7 );
+        rewriteAndCompare( packet( 0x28, 6 ), packet( 0x28, 6 ), 5, 7 );
+    }
+
+    @Test
+    public void testDifferentWidth()
+    {
+        rewriteAndCompare( packet( 0x28, 5 ), packet( 0x28, 300000 ), 5, 300000 );
+        rewriteAndCompare( packet( 0x28, 300000 ), packet( 0x28, 5 ), 5, 300000 );
+    }
+
+    @Test
+    public void testDirectBuffer()
+    {
+        ByteBuf buf = Unpooled.directBuffer();
+        buf.writeBytes( packet( 0x28, 5 ) );
+        rewriteAndCompare( buf, packet( 0x28, 300000 ), 5, 300000 );
+    }
+
+    @Test
+    public void testArray()
+    {
+        // Destroy Entities, with a count followed by the ids
+        rewriteAndCompare( packet( 0x37, 4, 1, 5, 300000, 9 ), packet( 0x37, 4, 1, 300000, 5, 9 ), 5, 300000 );
+        // Set Passengers, with the vehicle followed by a count and the passengers
+        rewriteAndCompare( packet( 0x4B, 5, 2, 300000, 5 ), packet( 0x4B, 300000, 2, 5, 300000 ), 5, 300000 );
+    }
+
+    @Test
+    public void testTrailingShrink()
+    {
+        // Destroy Entities whose last id shrinks from two bytes to one, with nothing after it
+        ByteBuf buf = packet( 0x37, 2, 1, 300 );
+        buf.writerIndex( buf.writerIndex() - 8 );
+        ByteBuf expected = packet( 0x37, 2, 1, 5 );
+        expected.writerIndex( expected.writerIndex() - 8 );
+
+        rewriteAndCompare( buf, expected, 5, 300 );
+    }
+
+    @Test
+    public void testAllVersions()
+    {
+        for ( int version : ProtocolConstants.SUPPORTED_VERSION_IDS )
+        {
+            Assert.assertNotNull( EntityMap.getEntityMap( version ) );
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownVersion()
+    {
+        EntityMap.getEntityMap( 1 );
+    }
+
+    @Test
+    public void testLegacy()
+    {
+        // Entity Status in 1.8 has an int id
+        ByteBuf buf = Unpooled.buffer();
+        DefinedPacket.writeVarInt( 0x1A, buf );
+        buf.writeInt( 5 );
+        ByteBuf expected = Unpooled.buffer();
+        DefinedPacket.writeVarInt( 0x1A, expected );
+        expected.writeInt( 300000 );
+
+        EntityMap.getEntityMap( ProtocolConstants.MINECRAFT_1_8 ).rewriteClientbound( buf, 5, 300000, ProtocolConstants.MINECRAFT_1_8 );
+        Assert.assertEquals( expected, buf );
+    }
+
+    @Test
+    public void testSameIds()
+    {
+        EntityMap map = EntityMap.getEntityMap( ProtocolConstants.MINECRAFT_1_16, 5, 5 );
+        Assert.assertFalse( map.isRewrittenClientbound( 0x28 ) );
+        Assert.assertFalse( map.rewriteClientbound( new PacketWrapper( null, packet( 0x28, 5 ) ), 5, 5, ProtocolConstants.MINECRAFT_1_16 ) );
+        // Spawn Player still has its UUID rewritten
+        Assert.assertTrue( map.isRewrittenClientbound( 0x04 ) );
+
+        Assert.assertSame( EntityMap.getEntityMap( ProtocolConstants.MINECRAFT_1_16 ), EntityMap.getEntityMap( ProtocolConstants.MINECRAFT_1_16, 5, 7 ) );
+    }
+
+    @Test
+    public void testChanged()
+    {
+        EntityMap map = EntityMap.getEntityMap( ProtocolConstants.MINECRAFT_1_16 );
+        Assert.assertTrue( map.rewriteClientbound( new PacketWrapper( null, packet( 0x28, 5 ) ), 5, 7, ProtocolConstants.MINECRAFT_1_16 ) );
+        Assert.assertFalse( map.rewriteClientbound( new PacketWrapper( null, packet( 0x28, 6 ) ), 5, 7, ProtocolConstants.MINECRAFT_1_16 ) );
+        Assert.assertTrue( map.rewriteClientbound( new PacketWrapper( null, packet( 0x37, 2, 6, 7 ) ), 5, 7, ProtocolConstants.MINECRAFT_1_16 ) );
+        Assert.assertFalse( map.rewriteClientbound( new PacketWrapper( null, packet( 0x37, 2, 6, 8 ) ), 5, 7, ProtocolConstants.MINECRAFT_1_16 ) );
+        Assert.assertTrue( map.rewriteClientbound( new PacketWrapper( null, metadata( 6, 10 ) ), 5, 7, ProtocolConstants.MINECRAFT_1_16 ) );
+        Assert.assertFalse( map.rewriteClientbound( new PacketWrapper( null, metadata( 11, 10 ) ), 5, 7, ProtocolConstants.MINECRAFT_1_16 ) );
+    }
+
+    private static ByteBuf metadata(int hook, int beam)
+    {
+        ByteBuf buf = Unpooled.buffer();
+        DefinedPacket.writeVarInt( 0x44, buf );
+        DefinedPacket.writeVarInt( 99, buf );
+        // Custom name, an optional chat component
+        buf.writeByte( 2 );
+        DefinedPacket.writeVarInt( 5, buf );
+        buf.writeBoolean( true );
+        DefinedPacket.writeString( "{\"text\":\"hello\"}", buf );
+        // NBT holding a list of compounds and an int array
+        buf.writeByte( 3 );
+        DefinedPacket.writeVarInt( 14, buf );
+        buf.writeByte( 10 ).writeShort( 0 );
+        buf.writeByte( 9 ).writeShort( 1 ).writeByte( 'l' ).writeByte( 10 ).writeInt( 2 );
+        buf.writeByte( 8 ).writeShort( 1 ).writeByte( 's' ).writeShort( 2 ).writeShort( 0x4142 ).writeByte( 0 );
+        buf.writeByte( 0 );
+        buf.writeByte( 11 ).writeShort( 1 ).writeByte( 'a' ).writeInt( 2 ).writeInt( 5 ).writeInt( 6 );
+        buf.writeByte( 0 );
+        // Fishing hook, holding the hooked entity plus one
+        buf.writeByte( 7 );
+        DefinedPacket.writeVarInt( 1, buf );
+        DefinedPacket.writeVarInt( hook, buf );
+        // Guardian beam target
+        buf.writeByte( 16 );
+        DefinedPacket.writeVarInt( 1, buf );
+        DefinedPacket.writeVarInt( beam, buf );
+        buf.writeByte( 0xFF );
+        return buf;
+    }
+
+    @Test
+    public void testMetadata()
+    {
+        rewriteAndCompare( metadata( 6, 5 ), metadata( 300001, 300000 ), 5, 300000 );
+        rewriteAndCompare( metadata( 300001, 300000 ), metadata( 6, 5 ), 5, 300000 );
+        rewriteAndCompare( metadata( 11, 10 ), metadata( 11, 10 ), 5, 300000 );
+    }
+
+    @Test
+    public void testNoCopy()
+    {
+        EntityMap map = EntityMap.getEntityMap( ProtocolConstants.MINECRAFT_1_16 );
+
+        // Neither id appears, so nothing can resize
+        ByteBuf buf = metadata( 11, 10 );
+        PacketWrapper wrapper = new PacketWrapper( null, buf );
+        map.rewriteClientbound( wrapper, 40, 300000, ProtocolConstants.MINECRAFT_1_16 );
+        Assert.assertSame( buf, wrapper.buf );
+
+        // Both ids are a single byte wide, so can be swapped in place
+        buf = metadata( 6, 5 );
+        wrapper = new PacketWrapper( null, buf );
+        map.rewriteClientbound( wrapper, 5, 7, ProtocolConstants.MINECRAFT_1_16 );
+        Assert.assertSame( buf, wrapper.buf );
+        Assert.assertEquals( metadata( 8, 7 ), buf );
+
+        buf = metadata( 6, 5 );
+        wrapper = new PacketWrapper( null, buf );
+        map.rewriteClientbound( wrapper, 5, 300000, ProtocolConstants.MINECRAFT_1_16 );
+        Assert.assertNotSame( buf, wrapper.buf );
+        wrapper.buf.release();
+    }
+}
@@ -0,0 +1,164 @@
+package net.md_5.bungee.http;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import net.md_5.bungee.api.Callback;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class HttpClientTest
+{
+
+    private static NioEventLoopGroup group;
+    private static Channel server;
+    private static final AtomicInteger connections = new AtomicInteger();
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static volatile boolean keepAlive;
+    private static volatile boolean dropNext;
+
+    @BeforeClass
+    public static void startServer() throws Exception
+    {
+        // Keeps PipelineUtils away from the proxy's logger
+        System.setProperty( "bungee.epoll", "false" );
+
+        group = new NioEventLoopGroup( 1 );
+        server = new ServerBootstrap().group( group ).channel( NioServerSocketChannel.class ).childHandler( new ChannelInitializer<Channel>()
+        {
+            @Override
+            protected void initChannel(Channel ch) throws Exception
+            {
+                connections.incrementAndGet();
+                ch.pipeline().addLast( new HttpServerCodec(), new HttpObjectAggregator( 1024 ), new SimpleChannelInboundHandler<HttpRequest>()
+                {
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, HttpRequest msg) throws Exception
+                    {
+                        requests.incrementAndGet();
+                        if ( dropNext )
+                        {
+                            // As a server whose keep-alive timeout just passed
+                            dropNext = false;
+                            ctx.close();
+                            return;
+                        }
+
+                        FullHttpResponse response = new DefaultFullHttpResponse( HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer( msg.uri(), StandardCharsets.UTF_8 ) );
+                        response.headers().set( HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes() );
+                        if ( !keepAlive )
+                        {
+                            response.headers().set( HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE );
+                        }
+                        ctx.writeAndFlush( response );
+                    }
+                } );
+            }
+        } ).bind( "127.0.0.1", 0 ).sync().channel();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception
+    {
+        server.close().sync();
+        group.shutdownGracefully().sync();
+    }
+
+    @Test
+    public void testKeepAlive() throws Throwable
+    {
+        NioEventLoopGroup client = new NioEventLoopGroup( 1 );
+        try
+        {
+            EventLoop loop = client.next();
+
+            keepAlive = false;
+            connections.set( 0 );
+            Assert.assertEquals( "/first", get( "/first", loop ) );
+            Assert.assertEquals( "/second", get( "/second", loop ) );
+            Assert.assertEquals( 2, connections.get() );
+
+            keepAlive = true;
+            connections.set( 0 );
+            Assert.assertEquals( "/third", get( "/third", loop ) );
+            Assert.assertEquals( "/fourth?query", get( "/fourth?query", loop ) );
+            Assert.assertEquals( 1, connections.get() );
+        } finally
+        {
+            client.shutdownGracefully().sync();
+        }
+    }
+
+    @Test
+    public void testClosedKeepAlive() throws Throwable
+    {
+        NioEventLoopGroup client = new NioEventLoopGroup( 1 );
+        try
+        {
+            EventLoop loop = client.next();
+
+            keepAlive = true;
+            Assert.assertEquals( "/first", get( "/first", loop ) );
+
+            connections.set( 0 );
+            requests.set( 0 );
+            dropNext = true;
+            // Sent on the pooled connection, which the server closes, so sent once more on a new one
+            Assert.assertEquals( "/second", get( "/second", loop ) );
+            Assert.assertEquals( 2, requests.get() );
+            Assert.assertEquals( 1, connections.get() );
+        } finally
+        {
+            client.shutdownGracefully().sync();
+        }
+    }
+
+    private static String get(String path, EventLoop loop) throws Throwable
+    {
+        int port = ( (InetSocketAddress) server.localAddress() ).getPort();
+        final AtomicReference<String> result = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch( 1 );
+
+        HttpClient.get( "http://127.0.0.1:" + port + path, loop, new Callback<String>()
+        {
+            @Override
+            public void done(String done, Throwable failure)
+            {
+                result.set( done );
+                error.set( failure );
+                latch.countDown();
+            }
+        } );
+        Assert.assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+
+        if ( error.get() != null )
+        {
+            throw error.get();
+        }
+        return result.get();
+    }
+}
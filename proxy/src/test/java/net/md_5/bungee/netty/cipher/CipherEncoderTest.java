@@ -0,0 +1,75 @@
+package net.md_5.bungee.netty.cipher;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import net.md_5.bungee.jni.cipher.BungeeCipher;
+import net.md_5.bungee.jni.cipher.JavaCipher;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CipherEncoderTest
+{
+
+    private final byte[] plainBytes = "This is a test".getBytes();
+    private final byte[] cipheredBytes = new byte[]
+    {
+        50, -7, 89, 1, -11, -32, -118, -48, -2, -72, 105, 97, -70, -81
+    };
+    private final SecretKey secret = new SecretKeySpec( new byte[ 16 ], "AES" );
+
+    @Test
+    public void testBroadcastFrame() throws Exception
+    {
+        EmbeddedChannel first = new EmbeddedChannel( new CipherEncoder( newCipher() ) );
+        EmbeddedChannel second = new EmbeddedChannel( new CipherEncoder( newCipher() ) );
+
+        // As PacketBroadcaster hands out one frame to every recipient
+        ByteBuf frame = PooledByteBufAllocator.DEFAULT.directBuffer();
+        frame.writeBytes( plainBytes );
+        first.writeOutbound( frame.retainedDuplicate() );
+        second.writeOutbound( frame.retainedDuplicate() );
+
+        Assert.assertArrayEquals( plainBytes, ByteBufUtil.getBytes( frame ) );
+        frame.release();
+
+        for ( EmbeddedChannel channel : new EmbeddedChannel[]
+        {
+            first, second
+        } )
+        {
+            ByteBuf out = channel.readOutbound();
+            Assert.assertArrayEquals( cipheredBytes, ByteBufUtil.getBytes( out ) );
+            out.release();
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    @Test
+    public void testExclusive() throws Exception
+    {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer();
+        Assert.assertTrue( CipherDecoder.isExclusive( buf ) );
+
+        ByteBuf duplicate = buf.retainedDuplicate();
+        Assert.assertFalse( CipherDecoder.isExclusive( duplicate ) );
+        Assert.assertFalse( CipherDecoder.isExclusive( buf ) );
+        duplicate.release();
+
+        ByteBuf slice = buf.retainedSlice();
+        Assert.assertFalse( CipherDecoder.isExclusive( slice ) );
+        slice.release();
+
+        buf.release();
+    }
+
+    private BungeeCipher newCipher() throws Exception
+    {
+        BungeeCipher cipher = new JavaCipher();
+        cipher.init( true, secret );
+        return cipher;
+    }
+}